@@ -0,0 +1,96 @@
+package soundwatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Resampling to 16 kHz, multichannel delay estimation and the sliding DFT.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisBenchmark
+{
+	// One second of audio per call
+	@State(Scope.Thread)
+	public static class Resampler
+	{
+		@Param({"44100", "48000"})
+		int rate;
+
+		PolyphaseResampler resampler;
+		double[] x;
+		double[] y;
+
+		@Setup
+		public void setup()
+		{
+			resampler = new PolyphaseResampler(rate, Signals.SAMPLE_RATE);
+			x = Signals.noise(rate, 7);
+			y = new double[resampler.maxOutput(x.length)];
+		}
+	}
+
+	// Every pair of a 1024 sample frame, GCC-PHAT
+	@State(Scope.Thread)
+	public static class Delays
+	{
+		@Param({"4", "8"})
+		int channels;
+
+		CrossCorrelator correlator;
+		double[][] x;
+		double[] delays;
+
+		@Setup
+		public void setup()
+		{
+			correlator = new CrossCorrelator(1024, 32, CrossCorrelator.Weighting.PHAT);
+			x = new double[channels][];
+			for (int c=0 ; c<channels ; c++) x[c] = Signals.noise(1024, 10 + c);
+			delays = new double[CrossCorrelator.pairs(channels)];
+		}
+	}
+
+	// One second at 16 kHz, every bin updated per sample
+	@State(Scope.Thread)
+	public static class Sliding
+	{
+		@Param({"8", "64", "257"})
+		int bins;
+
+		SlidingDFT sdft;
+		double[] x;
+
+		@Setup
+		public void setup()
+		{
+			sdft = new SlidingDFT(512, 256 - (bins - 1), 256);
+			x = Signals.noise(Signals.SAMPLE_RATE, 12);
+		}
+	}
+
+	@Benchmark
+	public double resample(Resampler s)
+	{
+		s.resampler.reset();
+		return s.resampler.process(s.x, s.x.length, s.y) + s.y[0];
+	}
+
+	@Benchmark
+	public double crossCorrelatorDelays(Delays s)
+	{
+		s.correlator.delays(s.x, 0, s.delays, null);
+		return s.delays[0];
+	}
+
+	@Benchmark
+	public double slidingDft(Sliding s)
+	{
+		s.sdft.process(s.x, 0, s.x.length);
+		return s.sdft.getReal(256);
+	}
+}
@@ -0,0 +1,104 @@
+package soundwatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One-shot linear convolution, the legacy RFFT.conv against FirConvolver.convolve, over
+ * signal and kernel sizes; streaming FIR filtering, 1024 samples per call; and a 3 s
+ * impulse response partitioned at one block per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvolverBenchmark
+{
+	@State(Scope.Thread)
+	public static class Conv
+	{
+		@Param({"1024", "16000", "160000"})
+		int signal;
+
+		@Param({"64", "512", "4096"})
+		int kernel;
+
+		double[] x;
+		double[] h;
+		float[] xf;
+		float[] hf;
+
+		@Setup
+		public void setup()
+		{
+			x = Signals.noise(signal, 4);
+			h = Signals.noise(kernel, 5);
+			xf = Signals.toFloat(x);
+			hf = Signals.toFloat(h);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Fir
+	{
+		@Param({"16", "64", "512", "4096"})
+		int taps;
+
+		FirConvolver convolver;
+		double[] x;
+		double[] y;
+
+		@Setup
+		public void setup()
+		{
+			convolver = new FirConvolver(Signals.noise(taps, 5));
+			x = Signals.noise(1024, 4);
+			y = new double[convolver.maxOutput(x.length)];
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Partitioned
+	{
+		@Param({"128", "512"})
+		int block;
+
+		PartitionedConvolver convolver;
+		double[] x;
+		double[] y;
+
+		@Setup
+		public void setup()
+		{
+			convolver = new PartitionedConvolver(Signals.noise(3 * Signals.SAMPLE_RATE, 8), block);
+			x = Signals.noise(block, 4);
+			y = new double[convolver.maxOutput(x.length)];
+		}
+	}
+
+	@Benchmark
+	public float[] rfftConv(Conv s)
+	{
+		return RFFT.conv(s.xf, s.hf);
+	}
+
+	@Benchmark
+	public double[] firConvolve(Conv s)
+	{
+		return FirConvolver.convolve(s.x, s.h);
+	}
+
+	@Benchmark
+	public double firProcess(Fir s)
+	{
+		return s.convolver.process(s.x, s.x.length, s.y) + s.y[0];
+	}
+
+	@Benchmark
+	public double partitionedProcess(Partitioned s)
+	{
+		return s.convolver.process(s.x, s.x.length, s.y) + s.y[0];
+	}
+}
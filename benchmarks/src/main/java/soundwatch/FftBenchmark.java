@@ -0,0 +1,62 @@
+package soundwatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The legacy FFT and RFFT against the planned RealFFT, per transform.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FftBenchmark
+{
+	@Param({"64", "512", "4096", "65536"})
+	int n;
+
+	private double[] signal;
+	private double[] x;
+	private FFT fft;
+	private Complex[] complex;
+	private RealFFT realFft;
+	private double[] re;
+	private double[] im;
+
+	@Setup
+	public void setup()
+	{
+		signal = Signals.noise(n, 2);
+		x = new double[n];
+		fft = new FFT();
+		complex = RFFT.toComplex(Signals.toFloat(Signals.noise(n, 3)));
+		realFft = RealFFT.of(n);
+		re = new double[realFft.bins()];
+		im = new double[realFft.bins()];
+	}
+
+	@Benchmark
+	public double fftProcess()
+	{
+		// FFT.process transforms in place, so start from the same signal every time
+		System.arraycopy(signal, 0, x, 0, n);
+		fft.process(x);
+		return fft.real[1];
+	}
+
+	@Benchmark
+	public Complex[] rfft()
+	{
+		return RFFT.fft(complex);
+	}
+
+	@Benchmark
+	public double realFftForward()
+	{
+		realFft.forward(signal, re, im);
+		return re[1];
+	}
+}
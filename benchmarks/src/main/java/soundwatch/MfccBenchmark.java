@@ -0,0 +1,46 @@
+package soundwatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * MFCC on noise, per clip. process() reuses one output buffer; melSpectrogram() allocates
+ * its result, which -prof gc shows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MfccBenchmark
+{
+	@Param({"1", "60"})
+	int seconds;
+
+	private MFCC mfcc;
+	private double[] y;
+	private float[] features;
+
+	@Setup
+	public void setup()
+	{
+		mfcc = new MFCC();
+		y = Signals.noise(seconds * Signals.SAMPLE_RATE, 6);
+		features = new float[MFCC.outputLength(y.length)];
+	}
+
+	@Benchmark
+	public float process()
+	{
+		mfcc.process(y, features);
+		return features[0];
+	}
+
+	@Benchmark
+	public double[][] melSpectrogram()
+	{
+		return mfcc.melSpectrogram(y);
+	}
+}
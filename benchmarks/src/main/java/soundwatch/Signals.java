@@ -0,0 +1,29 @@
+package soundwatch;
+
+import java.util.Random;
+
+// Deterministic test signals shared by the benchmarks, the same as Benchmark's
+final class Signals
+{
+	static final int SAMPLE_RATE = 16000;
+
+	private Signals()
+	{
+	}
+
+	// Noise in [-1, 1)
+	static double[] noise(int n, long seed)
+	{
+		Random random = new Random(seed);
+		double[] x = new double[n];
+		for (int i=0 ; i<n ; i++) x[i] = 2 * random.nextDouble() - 1;
+		return x;
+	}
+
+	static float[] toFloat(double[] x)
+	{
+		float[] f = new float[x.length];
+		for (int i=0 ; i<x.length ; i++) f[i] = (float) x[i];
+		return f;
+	}
+}
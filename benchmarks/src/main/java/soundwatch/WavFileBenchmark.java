@@ -0,0 +1,75 @@
+package soundwatch;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writing and reading 10 s of 16 kHz stereo through a temporary file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WavFileBenchmark
+{
+	private static final int FRAMES = Signals.SAMPLE_RATE * 10;
+
+	@Param({"8", "16", "24", "32"})
+	int bits;
+
+	private double[] samples;
+	private double[] buffer;
+	private File file;
+	private File written;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		samples = Signals.noise(2 * FRAMES, 1);
+		buffer = new double[2 * FRAMES];
+		file = File.createTempFile("benchmark", ".wav");
+		written = File.createTempFile("benchmark", ".wav");
+		WavFile w = WavFile.newWavFile(file, 2, FRAMES, bits, Signals.SAMPLE_RATE);
+		w.writeFrames(samples, FRAMES);
+		w.close();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		file.delete();
+		written.delete();
+	}
+
+	@Benchmark
+	public long writeFrames() throws Exception
+	{
+		WavFile w = WavFile.newWavFile(written, 2, FRAMES, bits, Signals.SAMPLE_RATE);
+		w.writeFrames(samples, FRAMES);
+		w.close();
+		return written.length();
+	}
+
+	@Benchmark
+	public double readFrames() throws Exception
+	{
+		WavFile r = WavFile.openWavFile(file);
+		final int n = r.readFrames(buffer, FRAMES);
+		r.close();
+		return n + buffer[n - 1];
+	}
+
+	@Benchmark
+	public double readMono() throws Exception
+	{
+		WavFile r = WavFile.openWavFile(file);
+		r.setPreEmphasis(0.97);
+		final int n = r.readMono(buffer, FRAMES);
+		r.close();
+		return n + buffer[n - 1];
+	}
+}
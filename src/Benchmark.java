@@ -0,0 +1,323 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Micro benchmarks for WavFile, FFT, RFFT, the convolvers, CrossCorrelator, PolyphaseResampler
+ * and MFCC.
+ *
+ * Every benchmark is warmed up, then run in timed batches on the calling thread.
+ * Reported per benchmark: operations per second, time per operation, and bytes
+ * allocated per operation and per second, from the JVM's per-thread allocation
+ * counter. Results are kept live through a sink so the JIT cannot drop the work.
+ *
+ * Usage: Benchmark [-filter regex] [-baseline file] [-save file] [-quick]
+ *
+ * With -baseline, each result is printed next to the stored one as a speedup
+ * ratio. The checked in baseline (src/benchmark-baseline.txt) was recorded on a
+ * single core JDK 17 machine; compare against your own saved runs on other machines.
+ *
+ * This is a quick check that needs no build. Everything runs in one JVM, so the JIT
+ * profile of one benchmark can colour the next; the JMH module in benchmarks/ forks per
+ * benchmark and is the one to quote (see README.md).
+ */
+public class Benchmark
+{
+	private final static int SAMPLE_RATE = 16000;
+
+	private final Pattern filter;
+	private final long warmupNanos;
+	private final long measureNanos;
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final Map<String, double[]> baseline;
+	private final Map<String, double[]> results = new LinkedHashMap<>();
+	private double sink;
+
+	// An operation returning something derived from its result
+	private interface Op
+	{
+		double run() throws Exception;
+	}
+
+	public Benchmark(Pattern filter, boolean quick, Map<String, double[]> baseline)
+	{
+		this.filter = filter;
+		this.warmupNanos = quick ? 100_000_000L : 1_000_000_000L;
+		this.measureNanos = quick ? 200_000_000L : 2_000_000_000L;
+		this.baseline = baseline;
+	}
+
+	public void runAll() throws Exception
+	{
+		wavFile();
+		fft();
+		rfft();
+		crossCorrelator();
+		slidingDft();
+		resampler();
+		mfcc();
+	}
+
+	private void wavFile() throws Exception
+	{
+		final int numFrames = SAMPLE_RATE * 10;
+		final double[] samples = signal(2 * numFrames, 1);
+		final double[] buffer = new double[2 * numFrames];
+		final File file = File.createTempFile("benchmark", ".wav");
+		file.deleteOnExit();
+		for (int bits : new int[] {8, 16, 24, 32})
+		{
+			measure("WavFile.writeFrames " + bits + " bit 10 s stereo", () -> {
+				WavFile w = WavFile.newWavFile(file, 2, numFrames, bits, SAMPLE_RATE);
+				w.writeFrames(samples, numFrames);
+				w.close();
+				return file.length();
+			});
+			if (!matches("WavFile.readFrames " + bits + " bit 10 s stereo") && !matches("WavFile.readMono " + bits + " bit 10 s stereo")) continue;
+			WavFile w = WavFile.newWavFile(file, 2, numFrames, bits, SAMPLE_RATE);
+			w.writeFrames(samples, numFrames);
+			w.close();
+			measure("WavFile.readFrames " + bits + " bit 10 s stereo", () -> {
+				WavFile r = WavFile.openWavFile(file);
+				final int n = r.readFrames(buffer, numFrames);
+				r.close();
+				return n + buffer[n - 1];
+			});
+			measure("WavFile.readMono " + bits + " bit 10 s stereo", () -> {
+				WavFile r = WavFile.openWavFile(file);
+				r.setPreEmphasis(0.97);
+				final int n = r.readMono(buffer, numFrames);
+				r.close();
+				return n + buffer[n - 1];
+			});
+		}
+	}
+
+	private void fft() throws Exception
+	{
+		for (int n=64 ; n<=65536 ; n*=2)
+		{
+			final double[] signal = signal(n, 2);
+			final double[] x = new double[n];
+			final FFT fft = new FFT();
+			measure("FFT.process " + n, () -> {
+				// FFT.process transforms in place, so start from the same signal every time
+				System.arraycopy(signal, 0, x, 0, x.length);
+				fft.process(x);
+				return fft.real[1];
+			});
+		}
+	}
+
+	private void rfft() throws Exception
+	{
+		for (int n=64 ; n<=65536 ; n*=2)
+		{
+			final Complex[] x = RFFT.toComplex(toFloat(signal(n, 3)));
+			measure("RFFT.fft " + n, () -> RFFT.fft(x)[1].re());
+		}
+		final int[][] sizes = {{1024, 64}, {16000, 64}, {16000, 512}, {16000, 4096}, {160000, 512}};
+		for (int[] size : sizes)
+		{
+			final float[] x = toFloat(signal(size[0], 4));
+			final float[] h = toFloat(signal(size[1], 5));
+			measure("RFFT.conv " + size[0] + " x " + size[1], () -> RFFT.conv(x, h)[size[1]]);
+		}
+		for (int[] size : sizes)
+		{
+			final double[] x = signal(size[0], 4);
+			final double[] h = signal(size[1], 5);
+			measure("FirConvolver.convolve " + size[0] + " x " + size[1], () -> FirConvolver.convolve(x, h)[size[1]]);
+		}
+		// Streaming, 1024 samples per call
+		for (int taps : new int[] {16, 64, 512, 4096})
+		{
+			final FirConvolver convolver = new FirConvolver(signal(taps, 5));
+			final double[] x = signal(1024, 4);
+			final double[] y = new double[convolver.maxOutput(x.length)];
+			measure("FirConvolver.process " + taps + " taps 1024", () -> convolver.process(x, x.length, y) + y[0]);
+		}
+		// 3 s impulse response at 16 kHz, one block per call
+		for (int block : new int[] {128, 512})
+		{
+			final PartitionedConvolver convolver = new PartitionedConvolver(signal(3 * SAMPLE_RATE, 8), block);
+			final double[] x = signal(block, 4);
+			final double[] y = new double[convolver.maxOutput(x.length)];
+			measure("PartitionedConvolver 3 s IR block " + block, () -> convolver.process(x, x.length, y) + y[0]);
+		}
+	}
+
+	private void crossCorrelator() throws Exception
+	{
+		for (int channels : new int[] {4, 8})
+		{
+			final double[][] x = new double[channels][];
+			for (int c=0 ; c<channels ; c++) x[c] = signal(1024, 10 + c);
+			final CrossCorrelator cc = new CrossCorrelator(1024, 32, CrossCorrelator.Weighting.PHAT);
+			final double[] delays = new double[CrossCorrelator.pairs(channels)];
+			measure("CrossCorrelator.delays " + channels + " ch 1024 PHAT", () -> {
+				cc.delays(x, 0, delays, null);
+				return delays[0];
+			});
+		}
+	}
+
+	private void slidingDft() throws Exception
+	{
+		// 1 s at 16 kHz, every bin updated per sample
+		for (int bins : new int[] {8, 64, 257})
+		{
+			final double[] x = signal(SAMPLE_RATE, 12);
+			final SlidingDFT sdft = new SlidingDFT(512, 256 - (bins - 1), 256);
+			measure("SlidingDFT 512 " + bins + " bins 1 s", () -> {
+				sdft.process(x, 0, x.length);
+				return sdft.getReal(256);
+			});
+		}
+	}
+
+	private void resampler() throws Exception
+	{
+		for (int rate : new int[] {44100, 48000})
+		{
+			final double[] x = signal(rate, 7);
+			final PolyphaseResampler resampler = new PolyphaseResampler(rate, SAMPLE_RATE);
+			final double[] y = new double[resampler.maxOutput(x.length)];
+			measure("PolyphaseResampler " + rate + " 1 s", () -> {
+				resampler.reset();
+				return resampler.process(x, x.length, y) + y[0];
+			});
+		}
+	}
+
+	private void mfcc() throws Exception
+	{
+		final MFCC mfcc = new MFCC();
+		for (int seconds : new int[] {1, 60})
+		{
+			final double[] y = signal(seconds * SAMPLE_RATE, 6);
+			final float[] features = new float[MFCC.outputLength(y.length)];
+			measure("MFCC.process " + seconds + " s", () -> {
+				mfcc.process(y, features);
+				return features[0];
+			});
+			measure("MFCC.melSpectrogram " + seconds + " s", () -> mfcc.melSpectrogram(y)[0][0]);
+		}
+	}
+
+	private boolean matches(String name)
+	{
+		return filter == null || filter.matcher(name).find();
+	}
+
+	private void measure(String name, Op op) throws Exception
+	{
+		if (!matches(name)) return;
+
+		// Warm up, and size batches to about 10 ms
+		long ops = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < warmupNanos)
+		{
+			sink += op.run();
+			ops ++;
+		}
+		final long batch = Math.max(1, ops * 10_000_000L / Math.max(1, System.nanoTime() - start));
+
+		ops = 0;
+		final long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+		start = System.nanoTime();
+		long elapsed;
+		do
+		{
+			for (long i=0 ; i<batch ; i++) sink += op.run();
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+		}
+		while (elapsed < measureNanos);
+		final long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+		final double opsPerSecond = ops * 1e9 / elapsed;
+		final double bytesPerOp = (double) allocated / ops;
+		results.put(name, new double[] {opsPerSecond, bytesPerOp});
+
+		String line = String.format("%-40s %14.1f ops/s %12.3f us/op %14.0f B/op %10.1f MB/s alloc",
+				name, opsPerSecond, 1e6 / opsPerSecond, bytesPerOp, allocated / 1e6 / (elapsed / 1e9));
+		double[] base = baseline.get(name);
+		if (base != null) line += String.format("   %6.2fx vs baseline", opsPerSecond / base[0]);
+		System.out.println(line);
+	}
+
+	public void save(File file) throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		lines.add("# benchmark\tops/s\tbytes/op");
+		for (Map.Entry<String, double[]> e : results.entrySet()) lines.add(String.format(Locale.ROOT, "%s\t%.1f\t%.0f", e.getKey(), e.getValue()[0], e.getValue()[1]));
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+	}
+
+	public static Map<String, double[]> load(File file) throws IOException
+	{
+		Map<String, double[]> results = new HashMap<>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+		{
+			if (line.startsWith("#") || line.isEmpty()) continue;
+			String[] fields = line.split("\t");
+			results.put(fields[0], new double[] {Double.parseDouble(fields[1]), Double.parseDouble(fields[2])});
+		}
+		return results;
+	}
+
+	// Deterministic noise in [-1, 1)
+	private static double[] signal(int n, long seed)
+	{
+		Random random = new Random(seed);
+		double[] x = new double[n];
+		for (int i=0 ; i<n ; i++) x[i] = 2 * random.nextDouble() - 1;
+		return x;
+	}
+
+	private static float[] toFloat(double[] x)
+	{
+		float[] f = new float[x.length];
+		for (int i=0 ; i<x.length ; i++) f[i] = (float) x[i];
+		return f;
+	}
+
+	public static void main(String[] args)
+	{
+		Pattern filter = null;
+		File baseline = null;
+		File save = null;
+		boolean quick = false;
+		for (int i=0 ; i<args.length ; i++)
+		{
+			switch (args[i])
+			{
+				case "-filter": filter = Pattern.compile(args[++i]); break;
+				case "-baseline": baseline = new File(args[++i]); break;
+				case "-save": save = new File(args[++i]); break;
+				case "-quick": quick = true; break;
+				default:
+					System.err.println("Usage: Benchmark [-filter regex] [-baseline file] [-save file] [-quick]");
+					System.exit(1);
+			}
+		}
+
+		try
+		{
+			Benchmark benchmark = new Benchmark(filter, quick, baseline == null ? new HashMap<>() : load(baseline));
+			benchmark.runAll();
+			if (save != null) benchmark.save(save);
+			if (benchmark.sink == 42) System.out.println();	// keeps sink live
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,254 @@
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * FFT cross-correlation and time delay estimation between channels, plain or GCC-PHAT.
+ *
+ * Frames of frameSize samples are zero padded to an FFT size of at least frameSize +
+ * maxLag + 1, so lags up to maxLag are linear, not circular, correlations. The cross power
+ * spectrum Y * conj(X) is transformed back to r[lag] = sum over n of y[n] x[n-lag]; a
+ * positive lag means y lags x. PHAT weighting divides the cross spectrum by its magnitude,
+ * which keeps only phase and gives a sharp peak that is robust to reverberation and
+ * coloured sources.
+ *
+ * The delay is the lag of the largest peak within +-maxLag, refined to a fraction of a
+ * sample by fitting a parabola through the peak and its neighbours. With all pairs of a
+ * multichannel frame, each channel is transformed once and each pair costs one spectrum
+ * product and one inverse FFT.
+ *
+ * Plans come from RealFFT.of(), shared; the spectra are per instance, so use one
+ * CrossCorrelator per thread.
+ */
+public class CrossCorrelator {
+
+    public enum Weighting {
+        NONE,   // plain cross-correlation
+        PHAT    // phase transform, unit magnitude cross spectrum
+    }
+
+    private final static double    phatFloor           = 1e-30;   // cross spectrum magnitude treated as zero
+
+    private final int frameSize;
+    private final int maxLag;
+    private final Weighting weighting;
+    private final RealFFT fft;
+    private final int n;
+
+    private final double[] frame;
+    private final double[] re;          // y spectrum, then the cross spectrum
+    private final double[] im;
+    private final double[] xRe;         // x spectrum
+    private final double[] xIm;
+    private final double[] corr;
+    private double[][] specRe = new double[0][];    // per channel spectra for delays()
+    private double[][] specIm = new double[0][];
+    private double[] energy = new double[0];
+    private double lastPeak;
+
+    public CrossCorrelator(int frameSize, int maxLag, Weighting weighting) {
+        if (frameSize < 2) throw new IllegalArgumentException("Frame must have at least 2 samples");
+        if (maxLag < 1 || maxLag >= frameSize) throw new IllegalArgumentException("Max lag must be in [1, frameSize), got " + maxLag);
+        this.frameSize = frameSize;
+        this.maxLag = maxLag;
+        this.weighting = weighting;
+        this.fft = RealFFT.of(RealFFT.sizeFor(frameSize + maxLag + 1));
+        this.n = fft.size();
+        this.frame = new double[n];
+        this.re = new double[fft.bins()];
+        this.im = new double[fft.bins()];
+        this.xRe = new double[fft.bins()];
+        this.xIm = new double[fft.bins()];
+        this.corr = new double[n];
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+    public int getFftSize() {
+        return n;
+    }
+
+    //number of channel pairs, and the order delays() uses: (0,1), (0,2), ..., (1,2), ...
+    public static int pairs(int channels) {
+        return channels * (channels - 1) / 2;
+    }
+
+    /**
+     * Correlation of y against x over one frame from each offset: r[maxLag + lag] for lag in
+     * [-maxLag, maxLag], so r needs 2*maxLag + 1 values.
+     */
+    public void correlate(double[] x, int xOffset, double[] y, int yOffset, double[] r) {
+        final double ex = spectrum(x, xOffset, xRe, xIm);
+        final double ey = spectrum(y, yOffset, re, im);
+        crossCorrelate(xRe, xIm, ex, re, im, ey);
+        for (int lag = -maxLag; lag <= maxLag; lag++){
+            r[maxLag + lag] = at(lag);
+        }
+    }
+
+    /**
+     * Delay of y relative to x in samples, to a fraction of a sample; positive if y lags x.
+     * getPeak() then gives the strength of the correlation peak.
+     */
+    public double delay(double[] x, int xOffset, double[] y, int yOffset) {
+        final double ex = spectrum(x, xOffset, xRe, xIm);
+        final double ey = spectrum(y, yOffset, re, im);
+        crossCorrelate(xRe, xIm, ex, re, im, ey);
+        return peak();
+    }
+
+    /**
+     * Delays of every channel pair over one frame starting at offset, in pairs() order, in
+     * samples. peaks, if not null, gets the strength of each pair's correlation peak.
+     */
+    public void delays(double[][] channels, int offset, double[] delays, double[] peaks) {
+        final int c = channels.length;
+        if (specRe.length < c){
+            specRe = new double[c][re.length];
+            specIm = new double[c][im.length];
+            energy = new double[c];
+        }
+        for (int i = 0; i < c; i++){
+            energy[i] = spectrum(channels[i], offset, specRe[i], specIm[i]);
+        }
+        int p = 0;
+        for (int i = 0; i < c; i++){
+            for (int j = i + 1; j < c; j++){
+                System.arraycopy(specRe[j], 0, re, 0, re.length);
+                System.arraycopy(specIm[j], 0, im, 0, im.length);
+                crossCorrelate(specRe[i], specIm[i], energy[i], re, im, energy[j]);
+                delays[p] = peak();
+                if (peaks != null) peaks[p] = lastPeak;
+                p++;
+            }
+        }
+    }
+
+    /**
+     * Strength of the last peak found by delay(): the normalised correlation coefficient
+     * for NONE, and for PHAT the peak of the unit magnitude cross spectrum's inverse, 1 for
+     * a pure delay of the whole frame.
+     */
+    public double getPeak() {
+        return lastPeak;
+    }
+
+    //zero padded frame into a spectrum, returns the frame's energy
+    private double spectrum(double[] x, int offset, double[] sr, double[] si) {
+        double e = 0;
+        for (int k = 0; k < frameSize; k++){
+            final double v = x[offset+k];
+            frame[k] = v;
+            e += v*v;
+        }
+        fft.forward(frame, sr, si);
+        return e;
+    }
+
+    //corr = inverse of (yr + i yi) * conj(xr + i xi), weighted; yr and yi are overwritten
+    private void crossCorrelate(double[] xr, double[] xi, double ex, double[] yr, double[] yi, double ey) {
+        final boolean phat = weighting == Weighting.PHAT;
+        for (int k = 0; k < yr.length; k++){
+            double gr = yr[k]*xr[k] + yi[k]*xi[k];
+            double gi = yi[k]*xr[k] - yr[k]*xi[k];
+            if (phat){
+                final double m = Math.sqrt(gr*gr + gi*gi);
+                if (m > phatFloor){
+                    gr /= m;
+                    gi /= m;
+                } else {
+                    gr = gi = 0;
+                }
+            }
+            yr[k] = gr;
+            yi[k] = gi;
+        }
+        fft.inverse(yr, yi, corr);
+        if (!phat){
+            //correlation coefficient
+            final double norm = Math.sqrt(ex * ey);
+            final double scale = norm > 0 ? 1 / norm : 0;
+            for (int k = 0; k < n; k++) corr[k] *= scale;
+        }
+    }
+
+    private double at(int lag) {
+        return corr[lag < 0 ? n + lag : lag];
+    }
+
+    //lag of the largest value in +-maxLag with parabolic refinement
+    private double peak() {
+        int best = 0;
+        double max = at(0);
+        for (int lag = -maxLag; lag <= maxLag; lag++){
+            final double v = at(lag);
+            if (v > max){
+                max = v;
+                best = lag;
+            }
+        }
+        lastPeak = max;
+        final double a = at(best - 1), b = max, c = at(best + 1);
+        final double d = a - 2*b + c;
+        final double shift = d < 0 ? 0.5 * (a - c) / d : 0;
+        return best + Math.max(-0.5, Math.min(0.5, shift));
+    }
+
+    /**
+     * Prints the median delay of every channel pair of a WAV file, and the real time factor.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1){
+            System.err.println("Usage: CrossCorrelator <wav file> [frame ms] [max lag ms] [NONE|PHAT]");
+            System.exit(1);
+        }
+        try {
+            final WavFile wavFile = WavFile.openWavFile(new File(args[0]));
+            final int rate = (int) wavFile.getSampleRate();
+            final int channels = wavFile.getNumChannels();
+            final int numFrames = (int) wavFile.getNumFrames();
+            if (channels < 2) throw new IllegalArgumentException("Need at least 2 channels, file has " + channels);
+            final double frameMs = args.length > 1 ? Double.parseDouble(args[1]) : 64;
+            final double lagMs = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+            final Weighting weighting = args.length > 3 ? Weighting.valueOf(args[3]) : Weighting.PHAT;
+            final int frameSize = (int) (frameMs * rate / 1000);
+            final int maxLag = Math.max(1, (int) Math.ceil(lagMs * rate / 1000));
+
+            final double[][] samples = new double[channels][numFrames];
+            wavFile.readFrames(samples, numFrames);
+            wavFile.close();
+
+            final CrossCorrelator cc = new CrossCorrelator(frameSize, maxLag, weighting);
+            final int pairs = pairs(channels);
+            final int frames = numFrames / frameSize;
+            final double[][] delays = new double[pairs][frames];
+            final double[] d = new double[pairs];
+            final long start = System.nanoTime();
+            for (int f = 0; f < frames; f++){
+                cc.delays(samples, f*frameSize, d, null);
+                for (int p = 0; p < pairs; p++) delays[p][f] = d[p];
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d channels, %d pairs, %d frames of %d samples, FFT %d, %s\n", channels, pairs, frames, frameSize, cc.getFftSize(), weighting);
+            int p = 0;
+            for (int i = 0; i < channels; i++){
+                for (int j = i + 1; j < channels; j++){
+                    final double[] sorted = delays[p++].clone();
+                    Arrays.sort(sorted);
+                    final double median = sorted.length == 0 ? 0 : sorted[sorted.length/2];
+                    System.out.printf("  %d-%d: median delay %+.2f samples (%+.1f us)\n", i, j, median, median * 1e6 / rate);
+                }
+            }
+            System.out.printf("Time: %.1f ms, %.0fx real time\n", seconds * 1e3, (double) numFrames / rate / seconds);
+        } catch (Exception e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+}
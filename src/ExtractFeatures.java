@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts MFCC from every WAV file under a directory into one FeatureFile.
+ *
+ * Files are decoded and processed on a pool of worker threads. Long files are cut into
+ * chunks of a fixed duration; every chunk becomes one clip, so memory per worker stays
+ * bounded and a single long recording does not serialise the run. Clips are appended by
+ * the main thread in completion order. The journal next to the output ("output.clips",
+ * one "path, chunk, frames" line per clip, in clip order) says which clip is which.
+ *
+ * The journal is written after each clip's payload, so after an interruption it lists
+ * exactly the clips that are complete. Running the same command again reopens the
+ * output at the end of the journal and only processes the chunks it does not list.
+ *
+ * Multichannel files use channel 0. Files that are not 16 kHz are converted with a
+ * PolyphaseResampler; it runs across chunk boundaries, so chunks are cut at the file's own
+ * rate and a resumed run still feeds the chunks it skips through the resampler.
+ *
+ * A file that fails with an Exception is reported and skipped. An Error on a worker ends
+ * the run: the output and journal are closed at the last complete clip, so it can be
+ * resumed, and the Error is rethrown.
+ */
+public class ExtractFeatures
+{
+	private final static String JOURNAL_SUFFIX = ".clips";
+
+	private final File inputDir;
+	private final File output;
+	private final int threads;
+	private final double chunkSeconds;
+	private final FeatureFile.Encoding encoding;
+	private final MFCC mfcc = new MFCC();
+
+	// Nanoseconds summed over all workers, plus the writer
+	private final AtomicLong decodeNanos = new AtomicLong();
+	private final AtomicLong mfccNanos = new AtomicLong();
+	private long writeNanos;
+	private long scanNanos;
+	private final AtomicLong samplesProcessed = new AtomicLong();
+
+	public ExtractFeatures(File inputDir, File output, int threads, double chunkSeconds, FeatureFile.Encoding encoding)
+	{
+		if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+		if (chunkSeconds * MFCC.sampleRate < MFCC.n_fft) throw new IllegalArgumentException("Chunks must be at least " + MFCC.n_fft + " samples");
+		this.inputDir = inputDir;
+		this.output = output;
+		this.threads = threads;
+		this.chunkSeconds = chunkSeconds;
+		this.encoding = encoding;
+	}
+
+	// One chunk of one file, or a file's end (features == null) or failure (error != null)
+	private static final class Result
+	{
+		final String path;
+		final int chunk;
+		final float[] features;
+		final Throwable error;
+
+		Result(String path, int chunk, float[] features, Throwable error)
+		{
+			this.path = path;
+			this.chunk = chunk;
+			this.features = features;
+			this.error = error;
+		}
+	}
+
+	public void run() throws IOException, InterruptedException
+	{
+		final long start = System.nanoTime();
+		final String config = mfcc.getConfigKey() + " chunk=" + chunkSeconds;
+
+		// Chunks already in the output
+		File journalFile = new File(output.getPath() + JOURNAL_SUFFIX);
+		Set<String> done = new HashSet<>();
+		List<Integer> frames = new ArrayList<>();
+		if (output.isFile() && journalFile.isFile())
+		{
+			// Only lines ending in '\n' are complete; a torn last line can still look valid, e.g. "12" of "123"
+			final byte[] bytes = Files.readAllBytes(journalFile.toPath());
+			int end = bytes.length;
+			while (end > 0 && bytes[end - 1] != '\n') end --;
+			for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n"))
+			{
+				String[] fields = line.split("\t");
+				if (fields.length != 3 || !fields[2].matches("\\d+")) break;
+				done.add(fields[0] + '\t' + fields[1]);
+				frames.add(Integer.parseInt(fields[2]));
+			}
+		}
+		int[] clipFrames = frames.stream().mapToInt(Integer::intValue).toArray();
+		FeatureFile.Writer writer = clipFrames.length > 0
+				? new FeatureFile.Writer(output, config, MFCC.n_mfcc, encoding, clipFrames)
+				: new FeatureFile.Writer(output, config, MFCC.n_mfcc, encoding);
+		rewriteJournal(journalFile, clipFrames.length);
+		Writer journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(inputDir.toPath()))
+		{
+			files = walk.filter(p -> p.toString().toLowerCase().endsWith(".wav") && Files.isRegularFile(p)).sorted().collect(Collectors.toList());
+		}
+		scanNanos = System.nanoTime() - start;
+		if (clipFrames.length > 0) System.out.printf("Resuming after %d clips\n", clipFrames.length);
+
+		final BlockingQueue<Result> results = new ArrayBlockingQueue<>(2 * threads);
+		final ThreadLocal<MFCC.Workspace> workspaces = ThreadLocal.withInitial(MFCC.Workspace::new);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (Path file : files)
+		{
+			final String path = inputDir.toPath().relativize(file).toString();
+			executor.execute(() -> extract(file.toFile(), path, done, workspaces.get(), results));
+		}
+		executor.shutdown();
+
+		int filesDone = 0;
+		int errors = 0;
+		int clips = 0;
+		try
+		{
+			while (filesDone < files.size())
+			{
+				Result r = results.take();
+				if (r.error instanceof Error) throw (Error) r.error;
+				if (r.error != null)
+				{
+					System.err.printf("%s: %s\n", r.path, r.error.getMessage());
+					errors ++;
+				}
+				if (r.features == null)
+				{
+					filesDone ++;
+					continue;
+				}
+				final long t = System.nanoTime();
+				writer.append(r.features);
+				journal.write(r.path + '\t' + r.chunk + '\t' + r.features.length / MFCC.n_mfcc + '\n');
+				journal.flush();
+				writeNanos += System.nanoTime() - t;
+				clips ++;
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			journal.close();
+			writer.close();
+		}
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		final double audioSeconds = samplesProcessed.get() / MFCC.sampleRate;
+		System.out.printf("Files: %d (%d failed), New clips: %d, Total clips: %d\n", files.size(), errors, clips, writer.getClipCount());
+		System.out.printf("Time: %.1f s, Files/s: %.1f, Audio hours/s: %.4f (%.0fx real time)\n",
+				seconds, files.size() / seconds, audioSeconds / 3600 / seconds, audioSeconds / seconds);
+		final double stages = (decodeNanos.get() + mfccNanos.get() + writeNanos + scanNanos) / 1e9;
+		System.out.printf("Stages: scan %.2f s, decode %.2f s, mfcc %.2f s, write %.2f s (decode and mfcc summed over %d workers)\n",
+				scanNanos / 1e9, decodeNanos.get() / 1e9, mfccNanos.get() / 1e9, writeNanos / 1e9, threads);
+		System.out.printf("        scan %.0f%%, decode %.0f%%, mfcc %.0f%%, write %.0f%%\n",
+				100 * scanNanos / 1e9 / stages, 100 * decodeNanos.get() / 1e9 / stages, 100 * mfccNanos.get() / 1e9 / stages, 100 * writeNanos / 1e9 / stages);
+	}
+
+	// Decodes one file chunk by chunk and queues the MFCC of every chunk not already done.
+	// Always ends with exactly one result that has no features.
+	private void extract(File file, String path, Set<String> done, MFCC.Workspace ws, BlockingQueue<Result> results)
+	{
+		Throwable error = null;
+		try
+		{
+			WavFile wavFile = WavFile.openWavFile(file);
+			try
+			{
+				final int sampleRate = (int) wavFile.getSampleRate();
+				final PolyphaseResampler resampler = sampleRate == (int) MFCC.sampleRate ? null : new PolyphaseResampler(sampleRate, (int) MFCC.sampleRate);
+				// One FFT frame at 16 kHz, in frames of the file
+				final long minFrames = ((long) MFCC.n_fft * sampleRate + (long) MFCC.sampleRate - 1) / (long) MFCC.sampleRate;
+				final long numFrames = wavFile.getNumFrames();
+				if (numFrames < minFrames) throw new WavFileException("Skipped, shorter than one FFT frame");
+				wavFile.setChannel(0);
+				final int chunkFrames = (int) (chunkSeconds * sampleRate);
+				// A tail shorter than one FFT frame joins the chunk before it
+				int numChunks = (int) ((numFrames + chunkFrames - 1) / chunkFrames);
+				if (numChunks > 1 && numFrames - (long) (numChunks - 1) * chunkFrames < minFrames) numChunks --;
+
+				double[] buffer = new double[(int) (chunkFrames + minFrames)];
+				double[] resampled = resampler == null ? buffer : new double[resampler.maxOutput(buffer.length) + resampler.maxOutput(0)];
+				double[] tail = resampler == null ? null : new double[resampler.maxOutput(0)];
+				for (int c=0 ; c<numChunks ; c++)
+				{
+					final long from = (long) c * chunkFrames;
+					final int length = (int) (c == numChunks - 1 ? numFrames - from : chunkFrames);
+					long t = System.nanoTime();
+					final int framesRead = wavFile.readMono(buffer, length);
+					int samples = framesRead;
+					if (resampler != null)
+					{
+						// Done chunks still go through the resampler to keep its history
+						samples = resampler.process(buffer, framesRead, resampled);
+						if (c == numChunks - 1 || framesRead < length)
+						{
+							final int n = resampler.flush(tail);
+							System.arraycopy(tail, 0, resampled, samples, n);
+							samples += n;
+						}
+					}
+					decodeNanos.addAndGet(System.nanoTime() - t);
+					if (samples < MFCC.n_fft) break;	// truncated file
+					if (done.contains(path + '\t' + c)) continue;
+
+					t = System.nanoTime();
+					float[] features = new float[MFCC.outputLength(samples)];
+					mfcc.process(resampled, samples, features, ws);
+					mfccNanos.addAndGet(System.nanoTime() - t);
+					samplesProcessed.addAndGet(samples);
+					results.put(new Result(path, c, features, null));
+				}
+			}
+			finally
+			{
+				wavFile.close();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			return;
+		}
+		catch (Throwable e)
+		{
+			error = e;
+		}
+		try
+		{
+			results.put(new Result(path, -1, null, error));
+		}
+		catch (InterruptedException e)
+		{
+			// shutting down
+		}
+	}
+
+	// Keeps the first lines lines, dropping a torn last line so appends start on a fresh line.
+	// Cuts bytes rather than decoding, as the tear may split a character.
+	private static void rewriteJournal(File journal, int lines) throws IOException
+	{
+		if (!journal.isFile()) return;
+		final byte[] bytes = Files.readAllBytes(journal.toPath());
+		int end = 0;
+		for (int kept=0 ; kept<lines ; end++)
+		{
+			if (bytes[end] == '\n') kept ++;
+		}
+		Files.write(journal.toPath(), Arrays.copyOf(bytes, end));
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: ExtractFeatures <input dir> <output file> [threads] [chunk seconds] [FLOAT32|FLOAT16|INT8]");
+			System.exit(1);
+		}
+
+		try
+		{
+			final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			final double chunkSeconds = args.length > 3 ? Double.parseDouble(args[3]) : 60.0;
+			final FeatureFile.Encoding encoding = args.length > 4 ? FeatureFile.Encoding.valueOf(args[4]) : FeatureFile.Encoding.FLOAT32;
+			new ExtractFeatures(new File(args[0]), new File(args[1]), threads, chunkSeconds, encoding).run();
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+}
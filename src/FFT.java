@@ -49,7 +49,12 @@ Please visit http://ocvolume.sourceforge.net.
  * imaginary parts of the input. Upon return, real[] and imaginary[] contain the
  * DFT output. All signals run from 0 to N - 1<br>
  * <b>input:</b> speech signal<br>
- * <b>output:</b> real and imaginary part of DFT output
+ * <b>output:</b> real and imaginary part of DFT output<br>
+ * <b>reused arrays:</b> after process(), real is the caller's signal array,
+ * overwritten with the real part, and imag is an array owned by this FFT. imag
+ * is zeroed and overwritten by the next call of the same size, so copy it to
+ * keep a result across calls. realFloat and imagFloat behave the same way for
+ * process(float[]). An FFT is therefore not safe to share between threads.
  *
  * @author Danny Su
  * @author Hanns Holger Rutz
@@ -57,15 +62,22 @@ Please visit http://ocvolume.sourceforge.net.
 public class FFT {
     double[] real;
     double[] imag;
+    float[] realFloat;
+    float[] imagFloat;
 
     /**
-     * Performs Fast Fourier Transformation in place.
+     * Performs Fast Fourier Transformation in place. imag is reused between
+     * calls of the same size.
      */
     public void process(double[] signal) {
         final int numPoints = signal.length;
         // initialize real & imag array
         real = signal;
-        imag = new double[numPoints];
+        if (imag == null || imag.length != numPoints) {
+            imag = new double[numPoints];
+        } else {
+            java.util.Arrays.fill(imag, 0);
+        }
 
         // perform FFT using the real & imag array
         final double pi = Math.PI;
@@ -125,4 +137,74 @@ public class FFT {
             }
         }
     }
+
+    /**
+     * Performs Fast Fourier Transformation in place in single precision.
+     * Same algorithm as {@link #process(double[])}; the result is left in
+     * realFloat (which is signal) and imagFloat. imagFloat is reused between
+     * calls of the same size.
+     */
+    public void process(float[] signal) {
+        final int numPoints = signal.length;
+        // initialize real & imag array
+        realFloat = signal;
+        if (imagFloat == null || imagFloat.length != numPoints) {
+            imagFloat = new float[numPoints];
+        } else {
+            java.util.Arrays.fill(imagFloat, 0f);
+        }
+        final float[] real = realFloat;
+        final float[] imag = imagFloat;
+
+        final double pi = Math.PI;
+        final int numStages = (int) (Math.log(numPoints) / Math.log(2));
+        final int halfNumPoints = numPoints >> 1;
+        int j = halfNumPoints;
+        // bit reversal sorting
+        int k;
+        for (int i = 1; i < numPoints - 2; i++) {
+            if (i < j) {
+                float tempReal = real[j];
+                float tempImag = imag[j];
+                real[j] = real[i];
+                imag[j] = imag[i];
+                real[i] = tempReal;
+                imag[i] = tempImag;
+            }
+            k = halfNumPoints;
+            while (k <= j) {
+                j -= k;
+                k >>= 1;
+            }
+            j += k;
+        }
+
+        // loop for each stage
+        for (int stage = 1; stage <= numStages; stage++) {
+            final int LE = 1 << stage;
+            final int LE2 = LE >> 1;
+            // the twiddle recurrence runs in double, it would drift in float
+            double UR = 1;
+            double UI = 0;
+            final double SR =  Math.cos(pi / LE2);
+            final double SI = -Math.sin(pi / LE2);
+            for (int subDFT = 1; subDFT <= LE2; subDFT++) {
+                final float ur = (float) UR;
+                final float ui = (float) UI;
+                for (int butterfly = subDFT - 1; butterfly <= numPoints - 1; butterfly += LE) {
+                    int ip = butterfly + LE2;
+                    float tempReal = real[ip] * ur - imag[ip] * ui;
+                    float tempImag = real[ip] * ui + imag[ip] * ur;
+                    real[ip] = real[butterfly] - tempReal;
+                    imag[ip] = imag[butterfly] - tempImag;
+                    real[butterfly] += tempReal;
+                    imag[butterfly] += tempImag;
+                }
+
+                double tempUR = UR;
+                UR = tempUR * SR - UI * SI;
+                UI = tempUR * SI + UI * SR;
+            }
+        }
+    }
 }
\ No newline at end of file
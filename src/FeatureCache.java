@@ -0,0 +1,311 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Disk backed, content addressed cache of extracted features.
+ *
+ * Entries are keyed by SHA-256 over the extractor configuration and the WAV
+ * file bytes (PCM data plus format header), so a renamed copy of a file hits
+ * the same entry and any change in either misses. Each entry is one small
+ * file: a 12 byte little endian header (magic, version, value count)
+ * followed by raw float32 values, read back through a memory map.
+ *
+ * Hashing still reads the file, so the cache also keeps an index from
+ * (path, length, last modified) to content key. A warm lookup of an
+ * unchanged file then costs a stat and a map, with no read, decode or DSP.
+ *
+ * Total entry size is bounded; least recently used entries are evicted
+ * first. Recency survives restarts through the entry files' modification
+ * times. The index only keeps files whose entry still exists; it is rewritten
+ * without the rest when opened and whenever it has grown to twice that. Temp
+ * files left by writes that never finished are deleted when the cache is
+ * opened. All methods are thread safe; an entry evicted while another thread
+ * reads it is a miss for that thread.
+ */
+public class FeatureCache implements Closeable
+{
+	private final static int MAGIC = 0x4643464D;	// "MFCF"
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 12;
+	private final static String ENTRY_SUFFIX = ".feat";
+	private final static String INDEX_NAME = "index.txt";
+	private final static String TMP_SUFFIX = ".tmp";
+	private final static long STALE_TMP_MILLIS = 60 * 60 * 1000L;	// older temp files are from crashed writes
+	private final static int MIN_INDEX_LINES = 1024;
+
+	public interface Extractor
+	{
+		float[] extract(File wav) throws IOException, WavFileException;
+	}
+
+	private final File dir;
+	private final byte[] config;
+	private final String configHash;
+	private final long maxBytes;
+
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);	// key -> bytes, LRU order
+	private final Map<String, String> statIndex = new HashMap<>();	// config|path|length|mtime -> key
+	private long totalBytes;
+	private Writer indexWriter;
+	private int indexLines;
+
+	private long hits;
+	private long misses;
+
+	public FeatureCache(File dir, String config, long maxBytes) throws IOException
+	{
+		this.dir = dir;
+		this.config = config.getBytes(StandardCharsets.UTF_8);
+		this.configHash = hex(newDigest().digest(this.config));
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create cache directory " + dir);
+
+		// Temp files of writes that never got renamed into place
+		final long stale = System.currentTimeMillis() - STALE_TMP_MILLIS;
+		for (File f : dir.listFiles((d, name) -> name.endsWith(TMP_SUFFIX)))
+		{
+			if (f.lastModified() < stale) f.delete();
+		}
+
+		// Existing entries, oldest first so the LRU order matches their last use
+		File[] files = dir.listFiles((d, name) -> name.endsWith(ENTRY_SUFFIX));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File f : files)
+		{
+			String key = f.getName().substring(0, f.getName().length() - ENTRY_SUFFIX.length());
+			entries.put(key, f.length());
+			totalBytes += f.length();
+		}
+		evict();
+
+		File index = new File(dir, INDEX_NAME);
+		if (index.isFile())
+		{
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8)))
+			{
+				String line;
+				while ((line = in.readLine()) != null)
+				{
+					int tab = line.lastIndexOf('\t');
+					if (tab > 0) statIndex.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+		}
+		compactIndex();
+	}
+
+	// Cached features for wav, or null
+	public float[] get(File wav) throws IOException
+	{
+		String key = keyFor(wav);
+		File entry = entryFile(key);
+		synchronized (this)
+		{
+			if (entries.get(key) == null)
+			{
+				misses ++;
+				return null;
+			}
+		}
+		float[] features;
+		try
+		{
+			features = read(entry);
+		}
+		catch (NoSuchFileException e)
+		{
+			// Evicted since the check above
+			synchronized (this)
+			{
+				misses ++;
+			}
+			return null;
+		}
+		synchronized (this)
+		{
+			hits ++;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		return features;
+	}
+
+	public void put(File wav, float[] features) throws IOException
+	{
+		String key = keyFor(wav);
+		File entry = entryFile(key);
+		File tmp = File.createTempFile(key, TMP_SUFFIX, dir);
+		try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE))
+		{
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 4 * features.length).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(features.length);
+			buf.asFloatBuffer().put(features);
+			buf.rewind();
+			while (buf.hasRemaining()) ch.write(buf);
+		}
+		Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		synchronized (this)
+		{
+			Long old = entries.put(key, entry.length());
+			totalBytes += entry.length() - (old == null ? 0 : old);
+			evict();
+		}
+	}
+
+	// Cached features, or extract, store and return them
+	public float[] getOrCompute(File wav, Extractor extractor) throws IOException, WavFileException
+	{
+		float[] features = get(wav);
+		if (features == null)
+		{
+			features = extractor.extract(wav);
+			put(wav, features);
+		}
+		return features;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (indexWriter != null)
+		{
+			indexWriter.close();
+			indexWriter = null;
+		}
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext())
+		{
+			Map.Entry<String, Long> e = it.next();
+			entryFile(e.getKey()).delete();
+			totalBytes -= e.getValue();
+			it.remove();
+		}
+	}
+
+	private File entryFile(String key)
+	{
+		return new File(dir, key + ENTRY_SUFFIX);
+	}
+
+	private static float[] read(File entry) throws IOException
+	{
+		try (FileChannel ch = FileChannel.open(entry.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) throw new IOException("Not a feature cache entry: " + entry);
+			int count = map.getInt(8);
+			if (HEADER_SIZE + 4L * count != ch.size()) throw new IOException("Truncated feature cache entry: " + entry);
+			float[] features = new float[count];
+			map.position(HEADER_SIZE);
+			FloatBuffer values = map.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+			values.get(features);
+			return features;
+		}
+	}
+
+	// Content key, from the stat index when the file is unchanged since it was last hashed
+	private String keyFor(File wav) throws IOException
+	{
+		String stat = configHash + '|' + wav.getCanonicalPath() + '|' + wav.length() + '|' + wav.lastModified();
+		synchronized (this)
+		{
+			String key = statIndex.get(stat);
+			if (key != null) return key;
+		}
+
+		String key = hash(wav);
+		synchronized (this)
+		{
+			if (!key.equals(statIndex.get(stat)) && indexWriter != null)
+			{
+				// Compact first, so this line survives though its entry may not be written yet
+				if (indexLines >= Math.max(MIN_INDEX_LINES, 2 * entries.size())) compactIndex();
+				indexWriter.write(stat + '\t' + key + '\n');
+				indexWriter.flush();
+				indexLines ++;
+			}
+			statIndex.put(stat, key);
+		}
+		return key;
+	}
+
+	// Drops index lines for files with no entry, and rewrites the index file with the rest
+	private synchronized void compactIndex() throws IOException
+	{
+		statIndex.values().retainAll(entries.keySet());
+		if (indexWriter != null) indexWriter.close();
+		File tmp = File.createTempFile("index", TMP_SUFFIX, dir);
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)))
+		{
+			for (Map.Entry<String, String> e : statIndex.entrySet()) out.write(e.getKey() + '\t' + e.getValue() + '\n');
+		}
+		File index = new File(dir, INDEX_NAME);
+		Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		indexWriter = new OutputStreamWriter(new FileOutputStream(index, true), StandardCharsets.UTF_8);
+		indexLines = statIndex.size();
+	}
+
+	private String hash(File wav) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		digest.update(config);
+		try (FileChannel ch = FileChannel.open(wav.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+			while (ch.read(buf) != -1)
+			{
+				buf.flip();
+				digest.update(buf);
+				buf.clear();
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
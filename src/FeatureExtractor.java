@@ -0,0 +1,277 @@
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+/**
+ * Computes any set of frame features from a single STFT pass.
+ *
+ * Every frame is windowed and transformed once, with the same framing, window and
+ * mel/DCT bases as MFCC. All requested features are derived from that one power
+ * spectrum, or from the raw frame for RMS and ZCR. MFCC output is identical to
+ * MFCC.process. All features are flat frame-major float arrays of
+ * numFrames x width(feature).
+ *
+ * DELTA and DELTA_DELTA are regression derivatives of the MFCC rows. They are
+ * computed as the DCT produces each tile of MFCC frames, by a streaming filter
+ * that only keeps a ring of 2N+1 delta rows. Requesting them implies MFCC.
+ */
+public class FeatureExtractor {
+
+    public enum Feature {
+        POWER,      // power spectrum, n_bins per frame
+        MEL,        // mel power spectrum, n_mels per frame
+        LOG_MEL,    // mel in dB with the top_db clamp (librosa power_to_db), n_mels per frame
+        MFCC,       // n_mfcc per frame, as MFCC.process
+        DELTA,      // first derivative of MFCC, n_mfcc per frame
+        DELTA_DELTA,// derivative of DELTA, n_mfcc per frame
+        CENTROID,   // spectral centroid in Hz
+        ROLLOFF,    // frequency below which 85% of the spectral magnitude lies, Hz
+        FLATNESS,   // spectral flatness of the power spectrum
+        RMS,        // root mean square of the raw frame
+        ZCR         // zero crossing rate of the raw frame
+    }
+
+    private final static double    rollPercent          = 0.85;
+    private final static double    amin                 = 1e-10;
+
+    private final MFCC mfcc = new MFCC();
+    private final MFCC.Workspace ws = new MFCC.Workspace();
+    private final EnumSet<Feature> features;
+    private final boolean needMel;
+    private final boolean needDb;
+    private final double[] binFreqs = mfcc.fftFreq();
+    private int deltaN = 4;
+
+    public FeatureExtractor(EnumSet<Feature> features) {
+        this.features = EnumSet.copyOf(features);
+        if (features.contains(Feature.DELTA) || features.contains(Feature.DELTA_DELTA)){
+            this.features.add(Feature.MFCC);
+        }
+        this.needDb = this.features.contains(Feature.LOG_MEL) || this.features.contains(Feature.MFCC);
+        this.needMel = needDb || this.features.contains(Feature.MEL);
+    }
+
+    //Number of frames in the delta regression window, odd and at least 3 (librosa width,
+    //default 9). Each derivative uses N = width/2 frames on either side.
+    public void setDeltaWidth(int width) {
+        if (width < 3 || width % 2 == 0) throw new IllegalArgumentException("Delta width must be odd and >= 3");
+        this.deltaN = width / 2;
+    }
+
+    public static int width(Feature feature) {
+        switch (feature) {
+            case POWER:   return MFCC.n_bins;
+            case MEL:
+            case LOG_MEL: return MFCC.n_mels;
+            case MFCC:
+            case DELTA:
+            case DELTA_DELTA: return MFCC.n_mfcc;
+            default:      return 1;
+        }
+    }
+
+    //Result of one extract() call
+    public static class Features {
+        public final int numFrames;
+        private final EnumMap<Feature, float[]> values = new EnumMap<>(Feature.class);
+
+        Features(int numFrames, EnumSet<Feature> features) {
+            this.numFrames = numFrames;
+            for (Feature feature : features) {
+                values.put(feature, new float[numFrames*width(feature)]);
+            }
+        }
+
+        public float[] get(Feature feature) {
+            final float[] v = values.get(feature);
+            if (v == null) throw new IllegalArgumentException(feature + " was not requested");
+            return v;
+        }
+    }
+
+    public Features extract(double[] y) {
+        final int n_frames = MFCC.numFrames(y.length);
+        final int n_bins = MFCC.n_bins;
+        final int n_mels = MFCC.n_mels;
+        Features out = new Features(n_frames, features);
+        ws.ensureCapacity(y.length);
+        mfcc.padReflect(y, y.length, ws.ypad);
+        final double[] power = ws.power;
+        final double[] log_spec = ws.logSpec;
+        double maxValue = -100;
+
+        for (int k0 = 0; k0 < n_frames; k0 += MFCC.frame_block){
+            final int rows = Math.min(MFCC.frame_block, n_frames-k0);
+            for (int r = 0; r < rows; r++){
+                final int frame = k0+r;
+                final int offset = frame*MFCC.hop_length;
+                if (features.contains(Feature.RMS) || features.contains(Feature.ZCR)){
+                    timeFeatures(ws.ypad, offset, frame, out);
+                }
+                mfcc.powerFrame(ws.fft, ws.ypad, offset, ws.fftFrame, power, r*n_bins);
+                spectralFeatures(power, r*n_bins, frame, out);
+            }
+            if (features.contains(Feature.POWER)){
+                narrow(power, 0, out.get(Feature.POWER), k0*n_bins, rows*n_bins);
+            }
+            if (needMel){
+                mfcc.melTile(power, rows, log_spec, k0*n_mels);
+                if (features.contains(Feature.MEL)){
+                    narrow(log_spec, k0*n_mels, out.get(Feature.MEL), k0*n_mels, rows*n_mels);
+                }
+                if (needDb){
+                    maxValue = mfcc.toDb(log_spec, k0*n_mels, (k0+rows)*n_mels, maxValue);
+                }
+            }
+        }
+
+        if (features.contains(Feature.MFCC)){
+            //clamps log_spec in place before the DCT. Deltas follow each tile of MFCC rows.
+            final float[] mfccOut = out.get(Feature.MFCC);
+            final Deltas deltas = features.contains(Feature.DELTA) || features.contains(Feature.DELTA_DELTA)
+                    ? new Deltas(out) : null;
+            for (int k0 = 0; k0 < n_frames; k0 += MFCC.frame_block){
+                final int k1 = Math.min(k0+MFCC.frame_block, n_frames);
+                mfcc.dctFrames(log_spec, k0, k1, maxValue, ws, mfccOut);
+                if (deltas != null){
+                    deltas.advance(k1);
+                }
+            }
+        } else if (needDb){
+            mfcc.powerToDb(log_spec, 0, n_frames*n_mels, maxValue);
+        }
+        if (features.contains(Feature.LOG_MEL)){
+            narrow(log_spec, 0, out.get(Feature.LOG_MEL), 0, n_frames*n_mels);
+        }
+        return out;
+    }
+
+    //Streaming regression deltas, HTK/librosa interior formula with edge frames repeated:
+    //  d[t] = sum_{n=1..N} n * (c[t+n] - c[t-n]) / (2 * sum_{n=1..N} n^2)
+    //Delta t is computed once MFCC row t+N exists, delta-delta t once delta t+N exists.
+    //Only the last 2N+1 deltas are kept; both are written straight into their output rows.
+    private final class Deltas {
+        private final int n_frames;
+        private final float[] mfccOut;
+        private final float[] deltaOut;
+        private final float[] deltaDeltaOut;
+        private final double[][] ring;
+        private final double norm;
+        private int nextDelta = 0;
+        private int nextDeltaDelta = 0;
+
+        Deltas(Features out) {
+            n_frames = out.numFrames;
+            mfccOut = out.get(Feature.MFCC);
+            deltaOut = features.contains(Feature.DELTA) ? out.get(Feature.DELTA) : null;
+            deltaDeltaOut = features.contains(Feature.DELTA_DELTA) ? out.get(Feature.DELTA_DELTA) : null;
+            ring = new double[2*deltaN+1][MFCC.n_mfcc];
+            double sum = 0;
+            for (int n = 1; n <= deltaN; n++){
+                sum += n*n;
+            }
+            norm = 2*sum;
+        }
+
+        //MFCC rows [0, produced) are available
+        void advance(int produced) {
+            final int n_mfcc = MFCC.n_mfcc;
+            final boolean done = produced == n_frames;
+            while (nextDelta < n_frames && (done || nextDelta + deltaN < produced)){
+                final int t = nextDelta;
+                final double[] d = ring[t % ring.length];
+                for (int i = 0; i < n_mfcc; i++){
+                    double acc = 0;
+                    for (int n = 1; n <= deltaN; n++){
+                        acc += n*((double) mfccOut[clamp(t+n)*n_mfcc+i] - mfccOut[clamp(t-n)*n_mfcc+i]);
+                    }
+                    d[i] = acc / norm;
+                    if (deltaOut != null){
+                        deltaOut[t*n_mfcc+i] = (float) d[i];
+                    }
+                }
+                nextDelta++;
+                if (deltaDeltaOut == null) continue;
+                while (nextDeltaDelta < nextDelta && (nextDelta == n_frames || nextDeltaDelta + deltaN < nextDelta)){
+                    final int u = nextDeltaDelta;
+                    for (int i = 0; i < n_mfcc; i++){
+                        double acc = 0;
+                        for (int n = 1; n <= deltaN; n++){
+                            acc += n*(ring[clamp(u+n) % ring.length][i] - ring[clamp(u-n) % ring.length][i]);
+                        }
+                        deltaDeltaOut[u*n_mfcc+i] = (float) (acc / norm);
+                    }
+                    nextDeltaDelta++;
+                }
+            }
+        }
+
+        private int clamp(int t) {
+            return t < 0 ? 0 : (t >= n_frames ? n_frames-1 : t);
+        }
+    }
+
+    //rms and zero crossing rate of the raw (unwindowed) frame, librosa
+    private void timeFeatures(double[] ypad, int offset, int frame, Features out){
+        double sumSq = 0;
+        int crossings = 0;
+        boolean positive = ypad[offset] >= 0;
+        for (int l = 0; l < MFCC.n_fft; l++){
+            final double v = ypad[offset+l];
+            sumSq += v*v;
+            if ((v >= 0) != positive){
+                crossings++;
+                positive = !positive;
+            }
+        }
+        if (features.contains(Feature.RMS)){
+            out.get(Feature.RMS)[frame] = (float) Math.sqrt(sumSq / MFCC.n_fft);
+        }
+        if (features.contains(Feature.ZCR)){
+            out.get(Feature.ZCR)[frame] = (float) crossings / MFCC.n_fft;
+        }
+    }
+
+    //centroid and rolloff on the magnitude spectrum, flatness on the power spectrum, librosa
+    private void spectralFeatures(double[] power, int offset, int frame, Features out){
+        final boolean centroid = features.contains(Feature.CENTROID);
+        final boolean rolloff = features.contains(Feature.ROLLOFF);
+        if (centroid || rolloff){
+            double magSum = 0;
+            double weighted = 0;
+            for (int k = 0; k < MFCC.n_bins; k++){
+                final double mag = Math.sqrt(power[offset+k]);
+                magSum += mag;
+                weighted += binFreqs[k]*mag;
+            }
+            if (centroid){
+                out.get(Feature.CENTROID)[frame] = magSum > 0 ? (float) (weighted / magSum) : 0f;
+            }
+            if (rolloff){
+                final double threshold = rollPercent*magSum;
+                double cumulative = 0;
+                int k = 0;
+                for (; k < MFCC.n_bins-1; k++){
+                    cumulative += Math.sqrt(power[offset+k]);
+                    if (cumulative >= threshold) break;
+                }
+                out.get(Feature.ROLLOFF)[frame] = (float) binFreqs[k];
+            }
+        }
+        if (features.contains(Feature.FLATNESS)){
+            double logSum = 0;
+            double sum = 0;
+            for (int k = 0; k < MFCC.n_bins; k++){
+                final double p = Math.max(power[offset+k], amin);
+                logSum += Math.log(p);
+                sum += p;
+            }
+            out.get(Feature.FLATNESS)[frame] = (float) (Math.exp(logSum / MFCC.n_bins) / (sum / MFCC.n_bins));
+        }
+    }
+
+    private static void narrow(double[] src, int srcOffset, float[] dst, int dstOffset, int length){
+        for (int i = 0; i < length; i++){
+            dst[dstOffset+i] = (float) src[srcOffset+i];
+        }
+    }
+}
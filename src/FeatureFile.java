@@ -0,0 +1,363 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary store for frame-major feature clips, meant to be memory mapped.
+ *
+ * Layout, all little endian:
+ *
+ *   header   magic "MFFF", version, encoding, width (values per frame),
+ *            config length, config (UTF-8, e.g. MFCC.getConfigKey())
+ *   clips    one contiguous payload per clip, in append order
+ *   index    per clip: payload offset (long), number of frames (int)
+ *   footer   clip count (int), index offset (long), magic
+ *
+ * Payload encodings:
+ *
+ *   FLOAT32  raw values
+ *   FLOAT16  IEEE half precision, round to nearest even (relative error 2^-11)
+ *   INT8     per clip, a float32 scale and offset for every coefficient, then one
+ *            byte per value: v = offset[c] + scale[c] * (q + 128). The error is at
+ *            most scale[c] / 2 = (max - min) / 510 of that coefficient in that clip.
+ *
+ * Writing is a single streaming pass. The reader maps the file once (or each clip on
+ * demand when it is larger than 2 GB) and loads only the small index, so opening is
+ * cheap and any clip is sliced in O(1).
+ */
+public class FeatureFile
+{
+	public enum Encoding {FLOAT32, FLOAT16, INT8};
+
+	private final static int MAGIC = 0x4646464D;	// "MFFF"
+	private final static int VERSION = 1;
+	private final static int FOOTER_SIZE = 16;
+	private final static int INDEX_ENTRY_SIZE = 12;
+
+	// Appends clips to a new feature file. Not thread safe.
+	public static class Writer implements Closeable
+	{
+		private final FileChannel channel;
+		private final Encoding encoding;
+		private final int width;
+		private long position;
+		private ByteBuffer buffer = ByteBuffer.allocate(0);
+		private ByteBuffer index = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		private int clipCount;
+
+		public Writer(File file, String config, int width, Encoding encoding) throws IOException
+		{
+			if (width < 1) throw new IllegalArgumentException("Width must be positive");
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			this.encoding = encoding;
+			this.width = width;
+
+			byte[] configBytes = config.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer header = ByteBuffer.allocate(20 + configBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(encoding.ordinal()).putInt(width).putInt(configBytes.length).put(configBytes);
+			header.flip();
+			write(header);
+		}
+
+		// Reopens a file for more appends, keeping its first clipFrames.length clips with the given
+		// frame counts. Works on a closed file and on one whose writer was interrupted: anything
+		// after those clips (a torn payload, the old index and footer) is truncated.
+		public Writer(File file, String config, int width, Encoding encoding, int[] clipFrames) throws IOException
+		{
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.encoding = encoding;
+			this.width = width;
+
+			byte[] configBytes = config.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer header = ByteBuffer.allocate(20 + configBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+			header.flip();
+			if (header.remaining() < 20 + configBytes.length || header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+					|| header.getInt(8) != encoding.ordinal() || header.getInt(12) != width || header.getInt(16) != configBytes.length
+					|| !header.position(20).slice().equals(ByteBuffer.wrap(configBytes)))
+			{
+				channel.close();
+				throw new IOException("Feature file does not match the requested layout: " + file);
+			}
+
+			position = 20 + configBytes.length;
+			for (int frames : clipFrames)
+			{
+				index = ensure(index, index.position() + INDEX_ENTRY_SIZE);
+				index.putLong(position).putInt(frames);
+				position += payloadSize(encoding, width, frames);
+			}
+			if (channel.size() < position)
+			{
+				channel.close();
+				throw new IOException("Feature file is shorter than its clips: " + file);
+			}
+			channel.truncate(position);
+			channel.position(position);
+			clipCount = clipFrames.length;
+		}
+
+		public int getClipCount()
+		{
+			return clipCount;
+		}
+
+		// Appends one clip of values.length / width frames, returns its clip index
+		public int append(float[] values) throws IOException
+		{
+			return append(values, 0, values.length / width);
+		}
+
+		public int append(float[] values, int offset, int numFrames) throws IOException
+		{
+			final int count = numFrames * width;
+			buffer = ensure(buffer, payloadSize(encoding, width, numFrames));
+			buffer.clear();
+			switch (encoding)
+			{
+				case FLOAT32:
+					for (int i=0 ; i<count ; i++) buffer.putFloat(values[offset + i]);
+					break;
+				case FLOAT16:
+					for (int i=0 ; i<count ; i++) buffer.putShort(toHalf(values[offset + i]));
+					break;
+				case INT8:
+					putInt8(values, offset, numFrames);
+					break;
+			}
+			buffer.flip();
+
+			index = ensure(index, index.position() + INDEX_ENTRY_SIZE);
+			index.putLong(position).putInt(numFrames);
+			write(buffer);
+			return clipCount ++;
+		}
+
+		public void close() throws IOException
+		{
+			final long indexOffset = position;
+			index.flip();
+			write(index);
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			footer.putInt(clipCount).putLong(indexOffset).putInt(MAGIC);
+			footer.flip();
+			write(footer);
+			channel.close();
+		}
+
+		private void putInt8(float[] values, int offset, int numFrames)
+		{
+			final int scalePos = buffer.position();
+			final int dataPos = scalePos + 8 * width;
+			for (int c=0 ; c<width ; c++)
+			{
+				float min = Float.POSITIVE_INFINITY;
+				float max = Float.NEGATIVE_INFINITY;
+				for (int f=0 ; f<numFrames ; f++)
+				{
+					final float v = values[offset + f * width + c];
+					if (v < min) min = v;
+					if (v > max) max = v;
+				}
+				if (numFrames == 0) min = max = 0;
+				final float scale = max > min ? (max - min) / 255f : 1f;
+				buffer.putFloat(scalePos + 4 * c, scale);
+				buffer.putFloat(scalePos + 4 * (width + c), min);
+				for (int f=0 ; f<numFrames ; f++)
+				{
+					final int q = Math.round((values[offset + f * width + c] - min) / scale);
+					buffer.put(dataPos + f * width + c, (byte) (Math.min(255, Math.max(0, q)) - 128));
+				}
+			}
+			buffer.position(dataPos + numFrames * width);
+		}
+
+		private void write(ByteBuffer buf) throws IOException
+		{
+			while (buf.hasRemaining()) position += channel.write(buf);
+		}
+
+		private static ByteBuffer ensure(ByteBuffer buf, int capacity)
+		{
+			if (buf.capacity() >= capacity) return buf;
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, 2 * buf.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+			buf.flip();
+			bigger.put(buf);
+			return bigger;
+		}
+	}
+
+	// Read-only view of a feature file. Thread safe once opened.
+	public static class Reader implements Closeable
+	{
+		private final FileChannel channel;
+		private final ByteBuffer map;		// whole file, or null if too large to map at once
+		private final Encoding encoding;
+		private final int width;
+		private final String config;
+		private final long[] offsets;
+		private final int[] frames;
+
+		public Reader(File file) throws IOException
+		{
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			final long size = channel.size();
+			map = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN) : null;
+
+			ByteBuffer header = region(0, Math.min(size, 20));
+			if (size < 20 + FOOTER_SIZE || header.getInt(0) != MAGIC) throw new IOException("Not a feature file: " + file);
+			if (header.getInt(4) != VERSION) throw new IOException("Unsupported feature file version " + header.getInt(4));
+			encoding = Encoding.values()[header.getInt(8)];
+			width = header.getInt(12);
+			byte[] configBytes = new byte[header.getInt(16)];
+			region(20, configBytes.length).get(configBytes);
+			config = new String(configBytes, StandardCharsets.UTF_8);
+
+			ByteBuffer footer = region(size - FOOTER_SIZE, FOOTER_SIZE);
+			if (footer.getInt(12) != MAGIC) throw new IOException("Feature file was not closed: " + file);
+			final int clipCount = footer.getInt(0);
+			ByteBuffer index = region(footer.getLong(4), (long) clipCount * INDEX_ENTRY_SIZE);
+			offsets = new long[clipCount];
+			frames = new int[clipCount];
+			for (int i=0 ; i<clipCount ; i++)
+			{
+				offsets[i] = index.getLong();
+				frames[i] = index.getInt();
+			}
+		}
+
+		public Encoding getEncoding()
+		{
+			return encoding;
+		}
+
+		public int getWidth()
+		{
+			return width;
+		}
+
+		public String getConfig()
+		{
+			return config;
+		}
+
+		public int getClipCount()
+		{
+			return offsets.length;
+		}
+
+		public int getNumFrames(int clip)
+		{
+			return frames[clip];
+		}
+
+		// Raw payload of one clip, little endian, without copying
+		public ByteBuffer payload(int clip) throws IOException
+		{
+			return region(offsets[clip], payloadSize(encoding, width, frames[clip]));
+		}
+
+		public float[] read(int clip) throws IOException
+		{
+			float[] values = new float[frames[clip] * width];
+			read(clip, values, 0);
+			return values;
+		}
+
+		// Decodes one clip into values[offset..]
+		public void read(int clip, float[] values, int offset) throws IOException
+		{
+			ByteBuffer p = payload(clip);
+			final int count = frames[clip] * width;
+			switch (encoding)
+			{
+				case FLOAT32:
+					p.asFloatBuffer().get(values, offset, count);
+					break;
+				case FLOAT16:
+					for (int i=0 ; i<count ; i++) values[offset + i] = fromHalf(p.getShort(2 * i));
+					break;
+				case INT8:
+					final int dataPos = 8 * width;
+					for (int i=0 ; i<count ; i++)
+					{
+						final int c = i % width;
+						values[offset + i] = p.getFloat(4 * (width + c)) + p.getFloat(4 * c) * (p.get(dataPos + i) + 128);
+					}
+					break;
+			}
+		}
+
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+
+		private ByteBuffer region(long position, long length) throws IOException
+		{
+			if (map != null)
+			{
+				ByteBuffer dup = map.duplicate();
+				dup.position((int) position).limit((int) (position + length));
+				return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	static int payloadSize(Encoding encoding, int width, int numFrames)
+	{
+		switch (encoding)
+		{
+			case FLOAT16: return 2 * numFrames * width;
+			case INT8: return 8 * width + numFrames * width;
+			default: return 4 * numFrames * width;
+		}
+	}
+
+	// IEEE 754 binary16, round to nearest even
+	static short toHalf(float value)
+	{
+		final int bits = Float.floatToRawIntBits(value);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int exp = (bits >>> 23) & 0xFF;
+		int mant = bits & 0x7FFFFF;
+		if (exp == 0xFF) return (short) (sign | 0x7C00 | (mant != 0 ? 0x200 : 0));
+		final int e = exp - 127 + 15;
+		if (e >= 0x1F) return (short) (sign | 0x7C00);
+		if (e <= 0)
+		{
+			// Subnormal half (or zero)
+			if (e < -10) return (short) sign;
+			mant |= 0x800000;
+			final int shift = 14 - e;
+			int half = mant >> shift;
+			final int rem = mant & ((1 << shift) - 1);
+			final int halfway = 1 << (shift - 1);
+			if (rem > halfway || (rem == halfway && (half & 1) != 0)) half ++;
+			return (short) (sign | half);
+		}
+		int half = (e << 10) | (mant >> 13);
+		final int rem = mant & 0x1FFF;
+		if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) half ++;	// a carry rolls into the exponent correctly
+		return (short) (sign | half);
+	}
+
+	static float fromHalf(short value)
+	{
+		final int bits = value & 0xFFFF;
+		final int sign = (bits & 0x8000) << 16;
+		final int exp = (bits >>> 10) & 0x1F;
+		final int mant = bits & 0x3FF;
+		if (exp == 0x1F) return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+		if (exp == 0)
+		{
+			final float f = mant * 0x1p-24f;
+			return sign != 0 ? -f : f;
+		}
+		return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+	}
+}
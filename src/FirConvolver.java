@@ -0,0 +1,231 @@
+import java.util.Arrays;
+
+/**
+ * Streaming FIR filter, y[n] = sum over k of h[k] x[n-k].
+ *
+ * Long kernels use overlap-save: the input is cut into blocks of B = N - K + 1 samples, each
+ * block is transformed together with the K - 1 samples before it in one real FFT of size N,
+ * multiplied by the kernel's spectrum (computed once, in the constructor) and transformed
+ * back; the last B samples of the result are the block's output. Short kernels are cheaper
+ * to apply directly in the time domain. The constructor picks the mode and N with a cost
+ * model per output sample; the two argument constructor forces them.
+ *
+ * Memory is one frame of N samples plus two spectra, whatever the stream length. In FFT
+ * mode output comes out a block at a time, so process() returns between 0 and about
+ * length + B samples and output lags input by up to B - 1 samples; in direct mode output is
+ * immediate. flush() completes the last block and the kernel's tail, so N input samples give
+ * N + K - 1 output samples in total, the same as a full linear convolution.
+ */
+public class FirConvolver {
+
+    //cost model, in nanoseconds measured on JDK 17: a multiply-add of the direct loop, and
+    //per point of a block (forward FFT, spectrum product, inverse FFT, copies) as
+    //pointCost + log2Cost*log2(N). Past maxFftSize the frame falls out of L2 and gets slower.
+    private final static double    directCost          = 1.2;
+    private final static double    pointCost           = 12.0;
+    private final static double    log2Cost            = 1.5;
+    private final static int       maxFftSize          = 1 << 16;
+
+    private final double[] kernel;
+    private final int K;
+    private final int N;                // FFT size, 0 in direct mode
+    private final int B;                // new samples per block
+    private final RealFFT fft;
+    private final double[] kernelRe;
+    private final double[] kernelIm;
+
+    private final double[] frame;       // K-1 samples of history, then the block being filled
+    private final double[] re;
+    private final double[] im;
+    private final double[] result;
+    private final double[] zeros;       // silence fed in by flush(), one block or K-1 samples
+    private int filled;                 // samples in frame
+    private long consumed;              // input samples seen
+    private long produced;              // output samples emitted
+
+    public FirConvolver(double[] kernel) {
+        this(kernel, chooseFftSize(kernel.length));
+    }
+
+    /**
+     * fftSize 0 applies the kernel directly, otherwise it must be a power of two of at least
+     * 2 * kernel.length.
+     */
+    public FirConvolver(double[] kernel, int fftSize) {
+        if (kernel.length == 0) throw new IllegalArgumentException("Empty kernel");
+        if (fftSize != 0 && (fftSize < 2*kernel.length || (fftSize & (fftSize - 1)) != 0)){
+            throw new IllegalArgumentException("FFT size must be 0 or a power of two of at least " + 2*kernel.length + ", got " + fftSize);
+        }
+        this.kernel = kernel.clone();
+        this.K = kernel.length;
+        this.N = fftSize;
+        if (N == 0){
+            this.B = 0;
+            this.fft = null;
+            this.kernelRe = this.kernelIm = this.re = this.im = this.result = null;
+            this.frame = new double[Math.max(2*(K - 1), 64)];
+            this.zeros = new double[K - 1];
+        } else {
+            this.B = N - K + 1;
+            this.fft = RealFFT.of(N);
+            this.kernelRe = new double[fft.bins()];
+            this.kernelIm = new double[fft.bins()];
+            this.frame = new double[N];
+            this.re = new double[fft.bins()];
+            this.im = new double[fft.bins()];
+            this.result = new double[N];
+            this.zeros = new double[B];
+            fft.forward(Arrays.copyOf(this.kernel, N), kernelRe, kernelIm);
+        }
+        reset();
+    }
+
+    /**
+     * FFT size with the lowest modelled cost per output sample, or 0 if the direct loop is
+     * cheaper than any of them.
+     */
+    public static int chooseFftSize(int kernelLength) {
+        double best = directCost * kernelLength;
+        int bestSize = 0;
+        for (int n = RealFFT.sizeFor(2*kernelLength); n <= Math.max(maxFftSize, RealFFT.sizeFor(2*kernelLength)); n <<= 1){
+            final double perBlock = (pointCost + log2Cost*Integer.numberOfTrailingZeros(n)) * n;
+            final double perSample = perBlock / (n - kernelLength + 1);
+            if (perSample < best){
+                best = perSample;
+                bestSize = n;
+            }
+        }
+        return bestSize;
+    }
+
+    public int getKernelLength() {
+        return K;
+    }
+
+    //FFT size, 0 in direct mode
+    public int getFftSize() {
+        return N;
+    }
+
+    //input samples per block, 1 in direct mode
+    public int getBlockSize() {
+        return N == 0 ? 1 : B;
+    }
+
+    //forgets all input, as if newly constructed
+    public void reset() {
+        Arrays.fill(frame, 0);
+        filled = K - 1;             //zeros before the first sample
+        consumed = 0;
+        produced = 0;
+    }
+
+    //largest number of samples process() or flush() can return for length input samples
+    public int maxOutput(int length) {
+        return length + K + (N == 0 ? 0 : B);
+    }
+
+    /**
+     * Filters in[0..length) and writes the output that is complete into out, returns how many
+     * samples that is.
+     */
+    public int process(double[] in, int length, double[] out) {
+        consumed += length;
+        return N == 0 ? direct(in, length, out, 0) : blocks(in, length, out, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Ends the stream: writes the outputs still held back, up to the end of the kernel's tail.
+     */
+    public int flush(double[] out) {
+        return flush(out, 0);
+    }
+
+    /**
+     * Full linear convolution of x and h, x.length + h.length - 1 samples.
+     */
+    public static double[] convolve(double[] x, double[] h) {
+        final FirConvolver c = new FirConvolver(h, chooseFftSize(h.length, x.length));
+        final double[] out = new double[c.maxOutput(x.length)];
+        final int n = c.process(x, x.length, out);
+        return Arrays.copyOf(out, n + c.flush(out, n));
+    }
+
+    private int flush(double[] out, int outOffset) {
+        final long total = consumed + K - 1;
+        int n = outOffset;
+        while (produced < total){
+            if (N == 0){
+                n += direct(zeros, (int) (total - produced), out, n);
+            } else {
+                n += blocks(zeros, B - (filled - (K - 1)), out, n, total);
+            }
+        }
+        return n - outOffset;
+    }
+
+    //as chooseFftSize(int), but no larger than needed for a signal of signalLength samples
+    private static int chooseFftSize(int kernelLength, int signalLength) {
+        final int n = chooseFftSize(kernelLength);
+        return n == 0 ? 0 : Math.min(n, RealFFT.sizeFor(2*kernelLength + signalLength));
+    }
+
+    //output stops at limit samples in total, the rest of the last block is dropped
+    private int blocks(double[] in, int length, double[] out, int outOffset, long limit) {
+        int n = outOffset;
+        int i = 0;
+        while (i < length){
+            final int take = Math.min(length - i, N - filled);
+            System.arraycopy(in, i, frame, filled, take);
+            filled += take;
+            i += take;
+            if (filled < N) break;
+
+            fft.forward(frame, re, im);
+            for (int k = 0; k < re.length; k++){
+                final double r = re[k]*kernelRe[k] - im[k]*kernelIm[k];
+                im[k] = re[k]*kernelIm[k] + im[k]*kernelRe[k];
+                re[k] = r;
+            }
+            fft.inverse(re, im, result);
+            //the first K-1 samples wrapped around, the rest is the block's output
+            final int count = (int) Math.min(B, limit - produced);
+            System.arraycopy(result, K - 1, out, n, count);
+            n += count;
+            produced += count;
+            System.arraycopy(frame, B, frame, 0, K - 1);
+            filled = K - 1;
+        }
+        return n - outOffset;
+    }
+
+    private int direct(double[] in, int length, double[] out, int outOffset) {
+        final double[] h = kernel;
+        int i = 0;
+        while (i < length){
+            //history in frame[0..K-1), then as much input as fits
+            final int take = Math.min(length - i, frame.length - (K - 1));
+            System.arraycopy(in, i, frame, K - 1, take);
+            for (int j = 0; j < take; j++){
+                //y[j] = sum h[k] x[j-k], x[j] at frame[K-1+j]
+                final int last = K - 1 + j;
+                double a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+                int k = 0;
+                for (; k + 3 < K; k += 4){
+                    a0 += h[k]   * frame[last-k];
+                    a1 += h[k+1] * frame[last-k-1];
+                    a2 += h[k+2] * frame[last-k-2];
+                    a3 += h[k+3] * frame[last-k-3];
+                }
+                for (; k < K; k++){
+                    a0 += h[k] * frame[last-k];
+                }
+                out[outOffset+i+j] = (a0 + a1) + (a2 + a3);
+            }
+            System.arraycopy(frame, take, frame, 0, K - 1);
+            i += take;
+        }
+        produced += length;
+        return length;
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Accuracy gate for the MFCC pipeline.
+ *
+ * Every bundled example file is read as channel 0 at 16 kHz, resampled with a
+ * PolyphaseResampler if the file is at another rate, and its first 3 s is checked:
+ *
+ *   stages    librosa parity: every stage of the reference double path (FeatureExtractor,
+ *             identical to MFCC.process) against librosa's output for the same samples,
+ *             within STAGE_BUDGETS. The goldens are FeatureFiles in src/golden named like
+ *             "example2.wav.mel.mfff", one per stage (power, mel, dB with the top_db clamp,
+ *             MFCC), written by make_golden.py under librosa. A golden that is missing or
+ *             whose config does not say source=librosa is a failure. To (re)generate them:
+ *
+ *                 java GoldenCheck -inputs
+ *                 python src/golden/make_golden.py
+ *
+ *             The first writes the exact 16 kHz excerpt checked here, after any resampling,
+ *             as "example.wav.input.f64" (raw little endian float64), and make_golden.py
+ *             runs librosa on those, so files at other rates are compared on the same input.
+ *             Commit the .f64 files with the goldens: the stages run on them, so the goldens
+ *             stay valid when the resampler changes.
+ *   variants  every optimised or approximate path (parallel, fast log, float32, ...)
+ *             against the reference path on the same input, within its own budget
+ *   allocation every call in allocationFree() on 1 s of the first file: after warm-up,
+ *             the calling thread's allocated bytes over MEASURED_CALLS calls must be 0
+ *
+ * Power and mel errors are relative to the largest golden value, dB and MFCC errors are
+ * absolute. A new variant only needs an entry in variants(). Exits with status 1 if
+ * anything is over budget.
+ */
+public class GoldenCheck
+{
+	private final static int EXCERPT_SAMPLES = 48000;
+	private final static String[] FILES = {"example.wav", "example2.wav"};
+	private final static String[] STAGES = {"power", "mel", "db", "mfcc"};
+	private final static FeatureExtractor.Feature[] STAGE_FEATURES = {
+			FeatureExtractor.Feature.POWER, FeatureExtractor.Feature.MEL, FeatureExtractor.Feature.LOG_MEL, FeatureExtractor.Feature.MFCC};
+	private final static boolean[] STAGE_RELATIVE = {true, true, false, false};
+	private final static int WARMUP_CALLS = 200;
+	private final static int MEASURED_CALLS = 100;
+
+	// Reference path against librosa: max error, mean error. Both sides run a float64 STFT on
+	// the same samples; what is left is float32 storage of both outputs and librosa's float32
+	// mel basis (relative 1e-7), so the budgets are about ten times that: ~1e-6 of the mel
+	// peak, and for dB and MFCC, float32 rounding of values up to ~100 dB and ~600.
+	private final static double[][] STAGE_BUDGETS = {
+			{1e-6, 1e-7},	// power, relative to peak
+			{1e-6, 1e-7},	// mel, relative to peak
+			{1e-4, 1e-5},	// dB
+			{1e-3, 1e-4},	// MFCC
+	};
+
+	// A path that computes MFCC for the same input as MFCC.process(double[])
+	private interface Path
+	{
+		float[] mfcc(double[] y);
+	}
+
+	private static final class Variant
+	{
+		final String name;
+		final Path path;
+		final double maxError;
+
+		Variant(String name, Path path, double maxError)
+		{
+			this.name = name;
+			this.path = path;
+			this.maxError = maxError;
+		}
+	}
+
+	private static List<Variant> variants()
+	{
+		List<Variant> variants = new ArrayList<>();
+		variants.add(new Variant("MFCC.process", y -> new MFCC().process(y), 0));
+		variants.add(new Variant("MFCC.process parallel", y -> new MFCC().process(y, ForkJoinPool.commonPool()), 0));
+		variants.add(new Variant("MFCC fast log", y -> {
+			MFCC mfcc = new MFCC();
+			mfcc.setFastLog(true);
+			return mfcc.process(y);
+		}, 1e-4));
+		variants.add(new Variant("MFCC.process float32", y -> {
+			float[] f = new float[y.length];
+			for (int i=0 ; i<y.length ; i++) f[i] = (float) y[i];
+			return new MFCC().process(f);
+		}, 5e-3));
+		return variants;
+	}
+
+	// Steady state calls on caller-owned buffers that must not allocate
+	private static Map<String, Runnable> allocationFree(double[] y)
+	{
+		Map<String, Runnable> calls = new LinkedHashMap<>();
+		final MFCC mfcc = new MFCC();
+		final float[] output = new float[MFCC.outputLength(y.length)];
+		calls.put("MFCC.process", () -> mfcc.process(y, output));
+		final MFCC.Workspace ws = new MFCC.Workspace();
+		calls.put("MFCC.process workspace", () -> mfcc.process(y, y.length, output, ws));
+		// A whole stream each: process, flush, reset
+		final double[] filtered = new double[y.length + 2048];
+		final FirConvolver direct = new FirConvolver(Arrays.copyOf(y, 16), 0);
+		calls.put("FirConvolver direct", () -> { direct.process(y, y.length, filtered); direct.flush(filtered); direct.reset(); });
+		final FirConvolver fir = new FirConvolver(Arrays.copyOf(y, 256));
+		calls.put("FirConvolver FFT", () -> { fir.process(y, y.length, filtered); fir.flush(filtered); fir.reset(); });
+		final PartitionedConvolver partitioned = new PartitionedConvolver(Arrays.copyOf(y, 1024), 256);
+		calls.put("PartitionedConvolver", () -> { partitioned.process(y, y.length, filtered); partitioned.flush(filtered); partitioned.reset(); });
+		return calls;
+	}
+
+	private final File dir;
+	private int failures;
+
+	public GoldenCheck(File dir)
+	{
+		this.dir = dir;
+	}
+
+	public int getFailures()
+	{
+		return failures;
+	}
+
+	public void check() throws IOException, WavFileException
+	{
+		double[] first = null;
+		for (String name : FILES)
+		{
+			final int[] sampleRate = new int[1];
+			final double[] y = load(new File(dir, name), sampleRate);
+			if (first == null) first = y;
+			final FeatureExtractor.Features reference = reference(y);
+			final File inputFile = goldenFile(name, "input", "f64");
+			final FeatureExtractor.Features stages = inputFile.isFile() ? reference(readInput(inputFile)) : reference;
+			System.out.println(name + (sampleRate[0] == (int) MFCC.sampleRate ? "" : " (" + sampleRate[0] + " Hz, resampled)"));
+
+			for (int s=0 ; s<STAGES.length ; s++)
+			{
+				File goldenFile = goldenFile(name, STAGES[s]);
+				if (!goldenFile.isFile())
+				{
+					report("stage " + STAGES[s], "no " + goldenFile.getName() + ", run GoldenCheck -inputs and make_golden.py", false);
+					continue;
+				}
+				try (FeatureFile.Reader golden = new FeatureFile.Reader(goldenFile))
+				{
+					if (!golden.getConfig().startsWith("source=librosa"))
+					{
+						report("stage " + STAGES[s], goldenFile.getName() + " was not written by librosa: " + golden.getConfig(), false);
+						continue;
+					}
+					if (s == 0) System.out.println("  golden: " + golden.getConfig());
+					final float[] expected = golden.read(0);
+					final float[] actual = stages.get(STAGE_FEATURES[s]);
+					if (expected.length != actual.length)
+					{
+						report("stage " + STAGES[s], "length " + actual.length + ", golden " + expected.length, false);
+						continue;
+					}
+					final double[] error = error(actual, expected, STAGE_RELATIVE[s]);
+					report("stage " + STAGES[s], String.format("max %.3g (budget %.3g), mean %.3g (budget %.3g)%s",
+							error[0], STAGE_BUDGETS[s][0], error[1], STAGE_BUDGETS[s][1], STAGE_RELATIVE[s] ? " of peak" : ""),
+							error[0] <= STAGE_BUDGETS[s][0] && error[1] <= STAGE_BUDGETS[s][1]);
+				}
+			}
+
+			final float[] referenceMfcc = reference.get(FeatureExtractor.Feature.MFCC);
+			for (Variant v : variants())
+			{
+				final double[] error = error(v.path.mfcc(y), referenceMfcc, false);
+				report("variant " + v.name, String.format("max %.3g (budget %.3g)", error[0], v.maxError), error[0] <= v.maxError);
+			}
+		}
+		checkAllocation(Arrays.copyOf(first, (int) MFCC.sampleRate));
+	}
+
+	private void checkAllocation(double[] y)
+	{
+		System.out.println("allocation, " + y.length + " samples");
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		for (Map.Entry<String, Runnable> call : allocationFree(y).entrySet())
+		{
+			final Runnable r = call.getValue();
+			for (int i=0 ; i<WARMUP_CALLS ; i++) r.run();
+			final long before = threads.getCurrentThreadAllocatedBytes();
+			for (int i=0 ; i<MEASURED_CALLS ; i++) r.run();
+			final long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+			report("allocation " + call.getKey(), String.format("%d bytes over %d calls", bytes, MEASURED_CALLS), bytes == 0);
+		}
+	}
+
+	// The excerpt of every file as checked, for make_golden.py
+	public void writeInputs() throws IOException, WavFileException
+	{
+		for (String name : FILES)
+		{
+			final double[] y = load(new File(dir, name), new int[1]);
+			final File file = goldenFile(name, "input", "f64");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+			{
+				for (double v : y) out.writeLong(Long.reverseBytes(Double.doubleToLongBits(v)));
+			}
+			System.out.println("Wrote " + file + ", " + y.length + " samples");
+		}
+	}
+
+	private static double[] readInput(File file) throws IOException
+	{
+		final double[] y = new double[(int) (file.length() / 8)];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			for (int i=0 ; i<y.length ; i++) y[i] = Double.longBitsToDouble(Long.reverseBytes(in.readLong()));
+		}
+		return y;
+	}
+
+	private File goldenFile(String name, String stage)
+	{
+		return goldenFile(name, stage, "mfff");
+	}
+
+	private File goldenFile(String name, String stage, String suffix)
+	{
+		return new File(new File(dir, "golden"), name + "." + stage + "." + suffix);
+	}
+
+	private void report(String what, String detail, boolean ok)
+	{
+		if (!ok) failures ++;
+		System.out.printf("  %-4s %-28s %s\n", ok ? "ok" : "FAIL", what, detail);
+	}
+
+	private static FeatureExtractor.Features reference(double[] y)
+	{
+		return new FeatureExtractor(EnumSet.of(FeatureExtractor.Feature.POWER, FeatureExtractor.Feature.MEL,
+				FeatureExtractor.Feature.LOG_MEL, FeatureExtractor.Feature.MFCC)).extract(y);
+	}
+
+	// Max and mean absolute error, relative to the peak of expected if asked
+	private static double[] error(float[] actual, float[] expected, boolean relative)
+	{
+		double max = 0;
+		double sum = 0;
+		double peak = 0;
+		for (int i=0 ; i<expected.length ; i++)
+		{
+			final double e = Math.abs((double) actual[i] - expected[i]);
+			max = Math.max(max, e);
+			sum += e;
+			peak = Math.max(peak, Math.abs(expected[i]));
+		}
+		final double scale = relative && peak > 0 ? peak : 1;
+		return new double[] {max / scale, sum / Math.max(1, expected.length) / scale};
+	}
+
+	// First EXCERPT_SAMPLES samples of channel 0 at 16 kHz; sampleRate gets the file's own rate
+	private static double[] load(File file, int[] sampleRate) throws IOException, WavFileException
+	{
+		WavFile wavFile = WavFile.openWavFile(file);
+		try
+		{
+			sampleRate[0] = (int) wavFile.getSampleRate();
+			final int numFrames = (int) wavFile.getNumFrames();
+			double[] y = new double[numFrames];
+			wavFile.setChannel(0);
+			final int framesRead = wavFile.readMono(y, numFrames);
+			y = Arrays.copyOf(y, framesRead);
+			if (sampleRate[0] != (int) MFCC.sampleRate)
+			{
+				y = PolyphaseResampler.resample(y, sampleRate[0], (int) MFCC.sampleRate, PolyphaseResampler.Quality.MEDIUM);
+			}
+			return Arrays.copyOf(y, Math.min(EXCERPT_SAMPLES, y.length));
+		}
+		finally
+		{
+			wavFile.close();
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		final boolean inputs = args.length > 0 && args[0].equals("-inputs");
+		final int first = inputs ? 1 : 0;
+		File dir = args.length > first ? new File(args[first]) : new File("src");
+
+		try
+		{
+			GoldenCheck check = new GoldenCheck(dir);
+			if (inputs)
+			{
+				check.writeInputs();
+				return;
+			}
+			check.check();
+			System.out.println(check.getFailures() == 0 ? "All checks passed" : check.getFailures() + " checks failed");
+			System.exit(check.getFailures() == 0 ? 0 : 1);
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+}
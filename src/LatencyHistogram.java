@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative durations in nanoseconds.
+ *
+ * Values below 128 get a bucket each; above that every power of two is split into 64
+ * buckets, so a reported percentile is within 1.6% of the true value. Recording is one
+ * atomic increment, safe from any number of threads, and snapshots can be taken while
+ * recording continues.
+ */
+public class LatencyHistogram
+{
+	private final static int SUB_BUCKETS = 64;
+	private final static int BUCKETS = SUB_BUCKETS * 58;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	public void record(long nanos)
+	{
+		counts.incrementAndGet(bucket(Math.max(0, nanos)));
+	}
+
+	public void reset()
+	{
+		for (int i=0 ; i<BUCKETS ; i++) counts.set(i, 0);
+	}
+
+	public Snapshot snapshot()
+	{
+		long[] copy = new long[BUCKETS];
+		for (int i=0 ; i<BUCKETS ; i++) copy[i] = counts.get(i);
+		return new Snapshot(copy);
+	}
+
+	// Counts at one point in time
+	public static class Snapshot
+	{
+		private final long[] counts;
+		private final long count;
+
+		Snapshot(long[] counts)
+		{
+			this.counts = counts;
+			long total = 0;
+			for (long c : counts) total += c;
+			this.count = total;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		// Value at quantile q (0..1), the upper edge of its bucket; 0 when empty
+		public long percentile(double q)
+		{
+			if (count == 0) return 0;
+			final long rank = Math.max(1, (long) Math.ceil(q * count));
+			long seen = 0;
+			for (int i=0 ; i<counts.length ; i++)
+			{
+				seen += counts[i];
+				if (seen >= rank) return upperEdge(i);
+			}
+			return upperEdge(counts.length - 1);
+		}
+
+		public long getMax()
+		{
+			for (int i=counts.length - 1 ; i>=0 ; i--) if (counts[i] > 0) return upperEdge(i);
+			return 0;
+		}
+
+		public double getMean()
+		{
+			if (count == 0) return 0;
+			double sum = 0;
+			for (int i=0 ; i<counts.length ; i++) if (counts[i] > 0) sum += counts[i] * (double) (lowerEdge(i) + upperEdge(i)) / 2;
+			return sum / count;
+		}
+
+		// Merged counts of this and other
+		public Snapshot add(Snapshot other)
+		{
+			long[] sum = counts.clone();
+			for (int i=0 ; i<sum.length ; i++) sum[i] += other.counts[i];
+			return new Snapshot(sum);
+		}
+
+		// e.g. "n=1200 p50=2.1ms p99=4.0ms p999=7.9ms max=8.3ms"
+		public String toString()
+		{
+			return String.format("n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+					count, percentile(0.5) / 1e6, percentile(0.99) / 1e6, percentile(0.999) / 1e6, getMax() / 1e6);
+		}
+	}
+
+	static int bucket(long value)
+	{
+		if (value < 2 * SUB_BUCKETS) return (int) value;
+		final int shift = 57 - Long.numberOfLeadingZeros(value);	// value >>> shift is in [64, 128)
+		return Math.min(BUCKETS - 1, SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long lowerEdge(int bucket)
+	{
+		if (bucket < 2 * SUB_BUCKETS) return bucket;
+		final int shift = bucket / SUB_BUCKETS - 1;
+		return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	static long upperEdge(int bucket)
+	{
+		if (bucket < 2 * SUB_BUCKETS) return bucket;
+		final int shift = bucket / SUB_BUCKETS - 1;
+		return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+	}
+}
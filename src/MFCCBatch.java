@@ -0,0 +1,309 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs MFCC over many clips on a bounded thread pool.
+ *
+ * One MFCC is shared by all workers (its bases are read-only); every worker
+ * thread keeps its own MFCC.Workspace and decode buffer, so the only steady
+ * state allocation is the result array handed to the listener. At most
+ * 2 * threads clips are in flight at a time, which bounds memory when the
+ * clips come from a long stream of files, and submission blocks until a
+ * slot frees up.
+ *
+ * Results are delivered one at a time (never concurrently) either in input
+ * order or as soon as they complete. clipsPerSecond() reports throughput over
+ * all runs so far.
+ *
+ * A clip that throws an Exception is reported to the listener. An Error on a
+ * worker, or anything the listener throws, stops submission and is rethrown by
+ * the processing call once the clips in flight are done.
+ */
+public class MFCCBatch implements AutoCloseable
+{
+	public interface Listener
+	{
+		void onResult(int index, float[] features);
+
+		void onError(int index, Exception e);
+	}
+
+	// Loads the samples of one item into the calling thread's decode buffer
+	private interface Loader<T>
+	{
+		double[] load(T item, int[] numSamples) throws IOException, WavFileException;
+	}
+
+	private final MFCC mfcc = new MFCC();
+	private final ExecutorService executor;
+	private final int maxInFlight;
+
+	private final ThreadLocal<MFCC.Workspace> workspaces = ThreadLocal.withInitial(MFCC.Workspace::new);
+	private final ThreadLocal<double[]> decodeBuffers = ThreadLocal.withInitial(() -> new double[0]);
+	private final ThreadLocal<double[]> rawBuffers = ThreadLocal.withInitial(() -> new double[0]);
+	private final ThreadLocal<Map<Integer, PolyphaseResampler>> resamplers = ThreadLocal.withInitial(HashMap::new);
+
+	private final AtomicLong clipsProcessed = new AtomicLong();
+	private final AtomicLong samplesProcessed = new AtomicLong();
+	private final AtomicLong elapsedNanos = new AtomicLong();
+	private volatile MetricsListener metrics;
+
+	public MFCCBatch(int threads)
+	{
+		if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+		this.maxInFlight = 2 * threads;
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "mfcc-batch");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	// In memory clips at 16 kHz, results in input order. A failed clip is rethrown once all others are done.
+	public List<float[]> process(List<double[]> clips) throws InterruptedException
+	{
+		final float[][] results = new float[clips.size()][];
+		final Exception[] failure = new Exception[1];
+		run(clips.iterator(), (clip, n) -> { n[0] = clip.length; return clip; }, true, new Listener()
+		{
+			public void onResult(int index, float[] features) { results[index] = features; }
+
+			public void onError(int index, Exception e) { if (failure[0] == null) failure[0] = e; }
+		});
+		if (failure[0] != null) throw new RuntimeException("Clip failed", failure[0]);
+		return Arrays.asList(results);
+	}
+
+	// Decodes and processes each file on the worker threads. Multichannel files use channel 0, and
+	// files at other rates are resampled to 16 kHz with a PolyphaseResampler, as in ExtractFeatures.
+	public void processFiles(Iterable<File> files, boolean ordered, Listener listener) throws InterruptedException
+	{
+		run(files.iterator(), this::decode, ordered, listener);
+	}
+
+	// Stage timings of the shared MFCC and of decoding, or null to stop reporting
+	public void setMetricsListener(MetricsListener metrics)
+	{
+		this.metrics = metrics;
+		mfcc.setMetricsListener(metrics);
+	}
+
+	public long getClipsProcessed()
+	{
+		return clipsProcessed.get();
+	}
+
+	public double getClipsPerSecond()
+	{
+		final long nanos = elapsedNanos.get();
+		return nanos == 0 ? 0 : clipsProcessed.get() * 1e9 / nanos;
+	}
+
+	// Seconds of audio processed per wall clock second; every clip reaches MFCC at 16 kHz
+	public double getRealtimeFactor()
+	{
+		final long nanos = elapsedNanos.get();
+		return nanos == 0 ? 0 : samplesProcessed.get() / MFCC.sampleRate * 1e9 / nanos;
+	}
+
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	private <T> void run(Iterator<T> items, Loader<T> loader, boolean ordered, Listener listener) throws InterruptedException
+	{
+		final long start = System.nanoTime();
+		final Delivery delivery = new Delivery(listener, ordered);
+		int index = 0;
+		try
+		{
+			while (items.hasNext() && delivery.failure == null)
+			{
+				final T item = items.next();
+				final int clipIndex = index++;
+				delivery.permits.acquire();
+				executor.execute(() -> delivery.complete(clipIndex, extract(item, loader)));
+			}
+			// Wait for everything in flight to be delivered
+			delivery.permits.acquire(maxInFlight);
+			delivery.permits.release(maxInFlight);
+		}
+		finally
+		{
+			elapsedNanos.addAndGet(System.nanoTime() - start);
+		}
+		final Throwable failure = delivery.failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure != null) throw new RuntimeException(failure);
+	}
+
+	private <T> Object extract(T item, Loader<T> loader)
+	{
+		try
+		{
+			final int[] numSamples = new int[1];
+			final double[] samples = loader.load(item, numSamples);
+			final float[] features = new float[MFCC.outputLength(numSamples[0])];
+			mfcc.process(samples, numSamples[0], features, workspaces.get());
+			clipsProcessed.incrementAndGet();
+			samplesProcessed.addAndGet(numSamples[0]);
+			return features;
+		}
+		catch (Throwable e)
+		{
+			return e;
+		}
+	}
+
+	private double[] decode(File file, int[] numSamples) throws IOException, WavFileException
+	{
+		final MetricsListener metrics = this.metrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		WavFile wavFile = WavFile.openWavFile(file);
+		try
+		{
+			final int numFrames = (int) wavFile.getNumFrames();
+			final int numChannels = wavFile.getNumChannels();
+			final int sampleRate = (int) wavFile.getSampleRate();
+			// Keep channel 0
+			wavFile.setChannel(0);
+			double[] buffer;
+			final int framesRead;
+			if (sampleRate == (int) MFCC.sampleRate)
+			{
+				buffer = buffer(decodeBuffers, numFrames);
+				framesRead = wavFile.readMono(buffer, numFrames);
+				numSamples[0] = framesRead;
+			}
+			else
+			{
+				final PolyphaseResampler resampler = resamplers.get().computeIfAbsent(sampleRate, rate -> new PolyphaseResampler(rate, (int) MFCC.sampleRate));
+				resampler.reset();
+				// The raw samples are copied into the resampler, so their buffer takes the flushed tail
+				final double[] raw = buffer(rawBuffers, Math.max(numFrames, resampler.maxOutput(0)));
+				framesRead = wavFile.readMono(raw, numFrames);
+				buffer = buffer(decodeBuffers, resampler.maxOutput(framesRead) + resampler.maxOutput(0));
+				final int n = resampler.process(raw, framesRead, buffer);
+				final int tail = resampler.flush(raw);
+				System.arraycopy(raw, 0, buffer, n, tail);
+				numSamples[0] = n + tail;
+			}
+			if (metrics != null) metrics.onDecoded((long) framesRead * numChannels * ((wavFile.getValidBits() + 7) / 8), System.nanoTime() - start);
+			return buffer;
+		}
+		finally
+		{
+			wavFile.close();
+		}
+	}
+
+	// The calling thread's buffer, grown to at least length samples
+	private static double[] buffer(ThreadLocal<double[]> buffers, int length)
+	{
+		double[] buffer = buffers.get();
+		if (buffer.length < length)
+		{
+			buffer = new double[length];
+			buffers.set(buffer);
+		}
+		return buffer;
+	}
+
+	// Hands results to the listener one at a time, in order if asked. A permit is only returned
+	// once its result has been delivered, so out of order results waiting for an earlier clip
+	// also count towards the in-flight bound.
+	private final class Delivery
+	{
+		final Semaphore permits = new Semaphore(maxInFlight);
+		final Listener listener;
+		final boolean ordered;
+		final TreeMap<Integer, Object> pending = new TreeMap<>();
+		int next = 0;
+		volatile Throwable failure;	// first Error from a worker or first throw from the listener
+
+		Delivery(Listener listener, boolean ordered)
+		{
+			this.listener = listener;
+			this.ordered = ordered;
+		}
+
+		synchronized void complete(int index, Object result)
+		{
+			if (!ordered)
+			{
+				deliver(index, result);
+				return;
+			}
+			pending.put(index, result);
+			while (!pending.isEmpty() && pending.firstKey() == next)
+			{
+				deliver(next, pending.pollFirstEntry().getValue());
+				next ++;
+			}
+		}
+
+		private void deliver(int index, Object result)
+		{
+			try
+			{
+				if (result instanceof Exception) listener.onError(index, (Exception) result);
+				else if (result instanceof Throwable) fail((Throwable) result);
+				else listener.onResult(index, (float[]) result);
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+			finally
+			{
+				permits.release();
+			}
+		}
+
+		private void fail(Throwable e)
+		{
+			if (failure == null) failure = e;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MFCCBatch <threads> <wav file>...");
+			System.exit(1);
+		}
+
+		List<File> files = new ArrayList<>();
+		for (int i=1 ; i<args.length ; i++) files.add(new File(args[i]));
+
+		PipelineMetrics metrics = new PipelineMetrics();
+		try (MFCCBatch batch = new MFCCBatch(Integer.parseInt(args[0])))
+		{
+			batch.setMetricsListener(metrics);
+			batch.processFiles(files, false, new Listener()
+			{
+				public void onResult(int index, float[] features)
+				{
+					System.out.printf("%s: %d values\n", files.get(index), features.length);
+				}
+
+				public void onError(int index, Exception e)
+				{
+					System.err.printf("%s: %s\n", files.get(index), e);
+				}
+			});
+			System.out.printf("Clips: %d, Clips/s: %.1f, Realtime factor: %.1f\n",
+					batch.getClipsProcessed(), batch.getClipsPerSecond(), batch.getRealtimeFactor());
+			System.out.print(metrics);
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+		}
+	}
+}
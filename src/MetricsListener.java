@@ -0,0 +1,15 @@
+/**
+ * Receives per stage timings from the feature pipeline. Implementations must be thread
+ * safe: MFCCBatch and the parallel MFCC path report from several threads at once.
+ * PipelineMetrics is the standard implementation.
+ */
+public interface MetricsListener
+{
+	enum Stage {DECODE, STFT, MEL, DB, DCT}
+
+	// One call of stage took nanos for frames frames
+	void onStage(Stage stage, long nanos, int frames);
+
+	// bytes of PCM were decoded in nanos
+	void onDecoded(long bytes, long nanos);
+}
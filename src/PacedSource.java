@@ -0,0 +1,170 @@
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a live capture device: replays another source at wall clock pace.
+ *
+ * Audio is released in chunks of chunkSamples, each one no earlier than the moment a
+ * real device would have finished capturing it, and that moment is reported as its
+ * capture time. Latency measured by StreamPipeline from these timestamps is therefore
+ * the same capture to features latency a microphone would see. A reader that falls
+ * more than one chunk behind (a device would have dropped a buffer) is counted as an
+ * overrun; the audio itself is never dropped.
+ *
+ * The wrapped source can be a WAV file or the built in sine generator.
+ */
+public class PacedSource implements StreamPipeline.Source
+{
+	private final StreamPipeline.Source source;
+	private final int chunkSamples;
+	private final double nanosPerSample;
+	private long start = -1;
+	private long samples;
+	private long captureTime;
+	private long overruns;
+	private double[] scratch = new double[0];
+
+	public PacedSource(StreamPipeline.Source source, int chunkSamples)
+	{
+		if (chunkSamples < 1) throw new IllegalArgumentException("Chunk must hold at least one sample");
+		this.source = source;
+		this.chunkSamples = chunkSamples;
+		this.nanosPerSample = 1e9 / source.getSampleRate();
+	}
+
+	public int getSampleRate()
+	{
+		return source.getSampleRate();
+	}
+
+	public int read(double[] buffer, int length) throws IOException, WavFileException
+	{
+		if (start < 0) start = System.nanoTime();
+
+		// Fill a whole chunk unless the source ends
+		final int want = Math.min(length, chunkSamples);
+		int n = 0;
+		while (n < want)
+		{
+			final int read = fill(buffer, n, want - n);
+			if (read < 0) break;
+			n += read;
+		}
+		if (n == 0) return -1;
+
+		final long due = start + (long) ((samples + n) * nanosPerSample);
+		long now;
+		while ((now = System.nanoTime()) < due) LockSupport.parkNanos(due - now);
+		if (now - due > chunkSamples * nanosPerSample) overruns ++;
+		samples += n;
+		captureTime = due;
+		return n;
+	}
+
+	public long captureTime()
+	{
+		return captureTime;
+	}
+
+	// Chunks that were read more than one chunk duration late
+	public long getOverruns()
+	{
+		return overruns;
+	}
+
+	public void close() throws IOException
+	{
+		source.close();
+	}
+
+	private int fill(double[] buffer, int offset, int length) throws IOException, WavFileException
+	{
+		if (offset == 0) return source.read(buffer, length);
+		if (scratch.length < length) scratch = new double[length];
+		final int read = source.read(scratch, length);
+		if (read > 0) System.arraycopy(scratch, 0, buffer, offset, read);
+		return read;
+	}
+
+	// Sine tone of the given length, as WriteExample writes
+	public static class Sine implements StreamPipeline.Source
+	{
+		private final double frequency;
+		private final double amplitude;
+		private final int sampleRate;
+		private final long numSamples;
+		private long frameCounter;
+
+		public Sine(double frequency, double amplitude, int sampleRate, double duration)
+		{
+			this.frequency = frequency;
+			this.amplitude = amplitude;
+			this.sampleRate = sampleRate;
+			this.numSamples = (long) (duration * sampleRate);
+		}
+
+		public int getSampleRate()
+		{
+			return sampleRate;
+		}
+
+		public int read(double[] buffer, int length)
+		{
+			final int n = (int) Math.min(length, numSamples - frameCounter);
+			if (n <= 0) return -1;
+			for (int s=0 ; s<n ; s++, frameCounter++) buffer[s] = amplitude * Math.sin(2.0 * Math.PI * frequency * frameCounter / sampleRate);
+			return n;
+		}
+
+		public void close()
+		{
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: PacedSource <streams> <chunk samples> [wav file]");
+			System.err.println("       replays the file, or 10 s of a 400 Hz tone, in real time on every stream");
+			System.exit(1);
+		}
+
+		final int numStreams = Integer.parseInt(args[0]);
+		final int chunk = Integer.parseInt(args[1]);
+		StreamPipeline pipeline = new StreamPipeline((int) MFCC.sampleRate, (int) MFCC.sampleRate / 4);
+		StreamPipeline.Stream[] streams = new StreamPipeline.Stream[numStreams];
+		PacedSource[] sources = new PacedSource[numStreams];
+		try
+		{
+			for (int i=0 ; i<numStreams ; i++)
+			{
+				StreamPipeline.Source source = args.length > 2 ? new StreamPipeline.WavSource(new File(args[2])) : new Sine(400, 0.5, (int) MFCC.sampleRate, 10.0);
+				sources[i] = new PacedSource(source, chunk);
+				streams[i] = pipeline.start(sources[i], new StreamPipeline.Sink()
+				{
+					public void onFeatures(long window, float[] features, int length) { }
+
+					public void onEnd() { }
+
+					public void onError(Exception e) { System.err.println(e); }
+				});
+			}
+			LatencyHistogram.Snapshot latency = null;
+			long overruns = 0;
+			for (int i=0 ; i<numStreams ; i++)
+			{
+				streams[i].await();
+				LatencyHistogram.Snapshot s = streams[i].getLatency().snapshot();
+				latency = latency == null ? s : latency.add(s);
+				overruns += sources[i].getOverruns();
+			}
+			System.out.printf("Streams: %d, Chunk: %.1f ms, Overruns: %d\n", numStreams, chunk * 1e3 / MFCC.sampleRate, overruns);
+			System.out.println("Capture to MFCC latency: " + latency);
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+		}
+	}
+}
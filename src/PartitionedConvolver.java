@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+/**
+ * Streaming convolution with long impulse responses at a latency of one block.
+ *
+ * Each impulse response is cut into partitions of B samples, and the spectrum of every
+ * partition (zero padded to 2B) is computed once into a Response. The input is transformed
+ * a block at a time, overlap-save style (previous block plus new block, one real FFT of 2B),
+ * and the spectra of the last P input blocks are kept in a frequency-domain delay line.
+ * The output block is then sum over p of X[t-p] * H[p], one inverse FFT, last B samples.
+ * Work per block grows with the IR length but latency stays at B samples, where plain
+ * overlap-save (FirConvolver) needs an FFT longer than the whole IR.
+ *
+ * One convolver applies any number of responses to the same input: the forward FFT and
+ * the delay line are shared, each response adds its multiply-accumulate and one inverse FFT.
+ * Responses are immutable, so one set can be shared by convolvers on many threads.
+ *
+ * As with FirConvolver, output comes out a block at a time and flush() completes the last
+ * block and the tail. Every output stream gets N + K - 1 samples for N input samples, K
+ * being the longest response; shorter responses end in zeros.
+ */
+public class PartitionedConvolver {
+
+    /**
+     * Partitioned spectrum of one impulse response for one block size.
+     */
+    public static final class Response {
+        private final int length;
+        private final int blockSize;
+        private final int partitions;
+        private final double[] re;      // partitions x (blockSize+1)
+        private final double[] im;
+
+        public Response(double[] ir, int blockSize) {
+            if (ir.length == 0) throw new IllegalArgumentException("Empty impulse response");
+            if (blockSize < 1 || (blockSize & (blockSize - 1)) != 0) throw new IllegalArgumentException("Block size must be a power of two, got " + blockSize);
+            this.length = ir.length;
+            this.blockSize = blockSize;
+            this.partitions = (ir.length + blockSize - 1) / blockSize;
+            final int bins = blockSize + 1;
+            this.re = new double[partitions*bins];
+            this.im = new double[partitions*bins];
+            final RealFFT fft = RealFFT.of(2*blockSize);
+            final double[] part = new double[2*blockSize];
+            final double[] pr = new double[bins];
+            final double[] pi = new double[bins];
+            for (int p = 0; p < partitions; p++){
+                Arrays.fill(part, 0);
+                System.arraycopy(ir, p*blockSize, part, 0, Math.min(blockSize, ir.length - p*blockSize));
+                fft.forward(part, pr, pi);
+                System.arraycopy(pr, 0, re, p*bins, bins);
+                System.arraycopy(pi, 0, im, p*bins, bins);
+            }
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+    }
+
+    private final Response[] responses;
+    private final int B;
+    private final int bins;
+    private final int slots;            // delay line length, partitions of the longest response
+    private final int maxLength;
+    private final RealFFT fft;
+
+    private final double[] frame;       // previous block, then the block being filled
+    private final double[] delayRe;     // slots x bins, input spectra
+    private final double[] delayIm;
+    private final double[] accRe;
+    private final double[] accIm;
+    private final double[] result;
+    private final double[] zeros;       // a block of silence, fed in by flush()
+    private final double[][] single = new double[1][];  // holds the caller's buffer for the single response forms
+    private int head;                   // slot of the newest input spectrum
+    private int filled;                 // samples of the current block
+    private long consumed;
+    private long produced;
+
+    public PartitionedConvolver(Response... responses) {
+        if (responses.length == 0) throw new IllegalArgumentException("No responses");
+        this.responses = responses.clone();
+        this.B = responses[0].blockSize;
+        int slots = 0, maxLength = 0;
+        for (Response r : responses){
+            if (r.blockSize != B) throw new IllegalArgumentException("Responses have block sizes " + B + " and " + r.blockSize);
+            slots = Math.max(slots, r.partitions);
+            maxLength = Math.max(maxLength, r.length);
+        }
+        this.slots = slots;
+        this.maxLength = maxLength;
+        this.bins = B + 1;
+        this.fft = RealFFT.of(2*B);
+        this.frame = new double[2*B];
+        this.delayRe = new double[slots*bins];
+        this.delayIm = new double[slots*bins];
+        this.accRe = new double[bins];
+        this.accIm = new double[bins];
+        this.result = new double[2*B];
+        this.zeros = new double[B];
+        reset();
+    }
+
+    //one response, partitioned at blockSize
+    public PartitionedConvolver(double[] ir, int blockSize) {
+        this(new Response(ir, blockSize));
+    }
+
+    public int getBlockSize() {
+        return B;
+    }
+
+    public int getResponseCount() {
+        return responses.length;
+    }
+
+    //forgets all input, as if newly constructed
+    public void reset() {
+        Arrays.fill(frame, 0);
+        Arrays.fill(delayRe, 0);
+        Arrays.fill(delayIm, 0);
+        head = 0;
+        filled = 0;
+        consumed = 0;
+        produced = 0;
+    }
+
+    //largest number of samples process() or flush() can write per response for length input samples
+    public int maxOutput(int length) {
+        return length + maxLength + B;
+    }
+
+    /**
+     * Convolves in[0..length) with every response, writing response r's output into out[r].
+     * Returns the number of samples written to each.
+     */
+    public int process(double[] in, int length, double[][] out) {
+        if (out.length != responses.length) throw new IllegalArgumentException("Need " + responses.length + " output buffers, got " + out.length);
+        consumed += length;
+        return blocks(in, length, out, 0, Long.MAX_VALUE);
+    }
+
+    //single response form
+    public int process(double[] in, int length, double[] out) {
+        single[0] = out;
+        final int n = process(in, length, single);
+        single[0] = null;
+        return n;
+    }
+
+    /**
+     * Ends the stream: writes the outputs still held back, up to the end of the longest tail.
+     */
+    public int flush(double[][] out) {
+        return flush(out, 0);
+    }
+
+    public int flush(double[] out) {
+        single[0] = out;
+        final int n = flush(single, 0);
+        single[0] = null;
+        return n;
+    }
+
+    /**
+     * Full linear convolution of x and ir, x.length + ir.length - 1 samples.
+     */
+    public static double[] convolve(double[] x, double[] ir, int blockSize) {
+        final PartitionedConvolver c = new PartitionedConvolver(ir, blockSize);
+        final double[] out = new double[c.maxOutput(x.length)];
+        final int n = c.process(x, x.length, out);
+        c.single[0] = out;
+        return Arrays.copyOf(out, n + c.flush(c.single, n));
+    }
+
+    private int flush(double[][] out, int outOffset) {
+        final long total = consumed + maxLength - 1;
+        int n = outOffset;
+        while (produced < total){
+            n += blocks(zeros, B - filled, out, n, total);
+        }
+        return n - outOffset;
+    }
+
+    //output stops at limit samples in total, the rest of the last block is dropped
+    private int blocks(double[] in, int length, double[][] out, int outOffset, long limit) {
+        int n = outOffset;
+        int i = 0;
+        while (i < length){
+            final int take = Math.min(length - i, B - filled);
+            System.arraycopy(in, i, frame, B + filled, take);
+            filled += take;
+            i += take;
+            if (filled < B) break;
+
+            //newest input spectrum into the delay line
+            head = head == 0 ? slots - 1 : head - 1;
+            fft.forward(frame, accRe, accIm);
+            System.arraycopy(accRe, 0, delayRe, head*bins, bins);
+            System.arraycopy(accIm, 0, delayIm, head*bins, bins);
+
+            final int count = (int) Math.min(B, limit - produced);
+            for (int r = 0; r < responses.length; r++){
+                multiplyAccumulate(responses[r]);
+                fft.inverse(accRe, accIm, result);
+                //the first B samples wrapped around, the rest is the block's output
+                System.arraycopy(result, B, out[r], n, count);
+            }
+            n += count;
+            produced += count;
+            System.arraycopy(frame, B, frame, 0, B);
+            filled = 0;
+        }
+        return n - outOffset;
+    }
+
+    //acc = sum over p of X[t-p] * H[p]; slot head holds X[t], slot head+p (mod slots) X[t-p]
+    private void multiplyAccumulate(Response h) {
+        final double[] ar = accRe, ai = accIm;
+        final double[] xr = delayRe, xi = delayIm;
+        final double[] hr = h.re, hi = h.im;
+        Arrays.fill(ar, 0);
+        Arrays.fill(ai, 0);
+        int slot = head;
+        for (int p = 0; p < h.partitions; p++){
+            final int x0 = slot*bins;
+            final int h0 = p*bins;
+            for (int k = 0; k < bins; k++){
+                final double a = xr[x0+k], b = xi[x0+k];
+                final double c = hr[h0+k], d = hi[h0+k];
+                ar[k] += a*c - b*d;
+                ai[k] += a*d + b*c;
+            }
+            if (++slot == slots) slot = 0;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects per stage timings from MFCC and the batch/stream front ends.
+ *
+ * Every reported call adds to the stage's totals (calls, frames, nanoseconds) and to a
+ * LatencyHistogram of call durations, so p50/p99/p999 can be read at any time through
+ * snapshot(). All updates are lock free and may come from any number of threads.
+ *
+ * register() publishes the metrics as an MBean under
+ * "SoundWatch:type=PipelineMetrics,name=<name>", for jconsole or any JMX client.
+ *
+ * Producers only time their stages while a listener is attached; with none attached
+ * the cost is one null check per tile of frames.
+ */
+public class PipelineMetrics implements MetricsListener, PipelineMetricsMBean
+{
+	private final static Stage[] STAGES = Stage.values();
+
+	private final LongAdder[] calls = new LongAdder[STAGES.length];
+	private final LongAdder[] frames = new LongAdder[STAGES.length];
+	private final LongAdder[] nanos = new LongAdder[STAGES.length];
+	private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+	private final LongAdder bytesDecoded = new LongAdder();
+	private ObjectName objectName;
+
+	public PipelineMetrics()
+	{
+		for (int s=0 ; s<STAGES.length ; s++)
+		{
+			calls[s] = new LongAdder();
+			frames[s] = new LongAdder();
+			nanos[s] = new LongAdder();
+			histograms[s] = new LatencyHistogram();
+		}
+	}
+
+	public void onStage(Stage stage, long nanos, int frames)
+	{
+		final int s = stage.ordinal();
+		this.calls[s].increment();
+		this.frames[s].add(frames);
+		this.nanos[s].add(nanos);
+		histograms[s].record(nanos);
+	}
+
+	public void onDecoded(long bytes, long nanos)
+	{
+		bytesDecoded.add(bytes);
+		onStage(Stage.DECODE, nanos, 0);
+	}
+
+	// Call durations of stage so far
+	public LatencyHistogram.Snapshot snapshot(Stage stage)
+	{
+		return histograms[stage.ordinal()].snapshot();
+	}
+
+	public long getCalls(Stage stage)
+	{
+		return calls[stage.ordinal()].sum();
+	}
+
+	public long getFrames(Stage stage)
+	{
+		return frames[stage.ordinal()].sum();
+	}
+
+	public long getNanos(Stage stage)
+	{
+		return nanos[stage.ordinal()].sum();
+	}
+
+	public long getBytesDecoded()
+	{
+		return bytesDecoded.sum();
+	}
+
+	public void reset()
+	{
+		for (int s=0 ; s<STAGES.length ; s++)
+		{
+			calls[s].reset();
+			frames[s].reset();
+			nanos[s].reset();
+			histograms[s].reset();
+		}
+		bytesDecoded.reset();
+	}
+
+	// Registers with the platform MBean server, replacing an earlier registration of this instance
+	public synchronized void register(String name) throws JMException
+	{
+		unregister();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("SoundWatch:type=PipelineMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	public synchronized void unregister() throws JMException
+	{
+		if (objectName == null) return;
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		objectName = null;
+	}
+
+	public String[] getStages()
+	{
+		String[] names = new String[STAGES.length];
+		for (int s=0 ; s<STAGES.length ; s++) names[s] = STAGES[s].name();
+		return names;
+	}
+
+	public long[] getStageCalls()
+	{
+		return sums(calls);
+	}
+
+	public long[] getStageFrames()
+	{
+		return sums(frames);
+	}
+
+	public long[] getStageNanos()
+	{
+		return sums(nanos);
+	}
+
+	public long[] getStageP50Nanos()
+	{
+		return percentiles(0.5);
+	}
+
+	public long[] getStageP99Nanos()
+	{
+		return percentiles(0.99);
+	}
+
+	public long[] getStageP999Nanos()
+	{
+		return percentiles(0.999);
+	}
+
+	// One line per stage that has been called
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Stage stage : STAGES)
+		{
+			if (getCalls(stage) == 0) continue;
+			sb.append(String.format("%-6s calls=%d frames=%d total=%.1fms %s\n",
+					stage, getCalls(stage), getFrames(stage), getNanos(stage) / 1e6, snapshot(stage)));
+		}
+		if (getBytesDecoded() > 0) sb.append(String.format("decoded %d bytes\n", getBytesDecoded()));
+		return sb.toString();
+	}
+
+	private static long[] sums(LongAdder[] adders)
+	{
+		long[] values = new long[adders.length];
+		for (int s=0 ; s<adders.length ; s++) values[s] = adders[s].sum();
+		return values;
+	}
+
+	private long[] percentiles(double q)
+	{
+		long[] values = new long[STAGES.length];
+		for (int s=0 ; s<STAGES.length ; s++) values[s] = histograms[s].snapshot().percentile(q);
+		return values;
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ * JMX view of a PipelineMetrics. Per stage arrays are indexed like getStages().
+ */
+public interface PipelineMetricsMBean
+{
+	String[] getStages();
+
+	long[] getStageCalls();
+
+	long[] getStageFrames();
+
+	long[] getStageNanos();
+
+	long[] getStageP50Nanos();
+
+	long[] getStageP99Nanos();
+
+	long[] getStageP999Nanos();
+
+	long getBytesDecoded();
+
+	void reset();
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * Streaming rational sample rate converter, e.g. 44.1 or 48 kHz to MFCC's 16 kHz.
+ *
+ * The rate ratio is reduced to outRate/inRate = L/M. Conceptually the input is upsampled by
+ * L, low pass filtered and decimated by M; the polyphase form only evaluates the L filter
+ * phases at the output instants, so each output sample is one dot product of taps input
+ * samples with a precomputed phase of the filter bank. The prototype is a Kaiser windowed
+ * sinc designed from a Quality's passband edge, stopband edge and attenuation, relative to
+ * the lower of the two Nyquist frequencies; the Kaiser formulas give the window's beta and
+ * length.
+ *
+ * The filter is centred on each output instant, so output n is the input signal at time
+ * n*M/L with no delay. process() keeps the last taps input samples between calls, which
+ * makes the result independent of how the input is chunked, and flush() emits the outputs
+ * still waiting for right hand context at the end. In total, N input samples give
+ * ceil(N*L/M) output samples. flush() ends the stream; reset() starts a new one.
+ */
+public class PolyphaseResampler implements StreamPipeline.Resampler {
+
+    /**
+     * Filter quality tiers: passband edge and stopband edge as fractions of the lower Nyquist
+     * frequency, and stopband attenuation in dB. All keep 0 to 7.5 kHz (MFCC's fMax) flat at
+     * 16 kHz output; measured figures are for 22.05 to 48 kHz input, see the comments.
+     *
+     * FAST's and MEDIUM's stopband starts above Nyquist, at the frequency whose alias falls
+     * on the passband edge, so only the transition band aliases, into 7.5 to 8 kHz, which no
+     * mel band reaches. That halves the taps of a stopband at Nyquist. When interpolating,
+     * the stopband is capped at Nyquist, since images of the transition band would land in
+     * the passband of the output instead.
+     */
+    public enum Quality {
+        FAST    (0.9375, 1.0625, 60),   // 7.5 / 8.5 kHz, ripple +-0.009 dB, stopband -60 dB, 176 taps at 48 kHz
+        MEDIUM  (0.9375, 1.0625, 80),   // 7.5 / 8.5 kHz, ripple +-0.0012 dB, stopband -81 dB, 242 taps
+        HIGH    (0.95,   1.0,    100);  // 7.6 / 8 kHz, ripple +-0.0005 dB, stopband -101 dB, 772 taps, no aliasing
+
+        final double passband;
+        final double stopband;
+        final double attenuation;
+
+        Quality(double passband, double stopband, double attenuation) {
+            this.passband = passband;
+            this.stopband = stopband;
+            this.attenuation = attenuation;
+        }
+
+        //Kaiser window beta for the attenuation
+        double beta() {
+            final double a = attenuation;
+            if (a > 50) return 0.1102 * (a - 8.7);
+            if (a >= 21) return 0.5842 * Math.pow(a - 21, 0.4) + 0.07886 * (a - 21);
+            return 0;
+        }
+    }
+
+    private final static int    maxPhases           = 16384;
+
+    private final int inRate;
+    private final int outRate;
+    private final int L;            // phases (upsampling factor)
+    private final int M;            // input step per output in phases (downsampling factor)
+    private final int taps;         // taps per phase, even
+    private final double[] bank;    // L x taps, row p evaluates the filter at fractional offset p/L
+
+    private double[] buffer;        // input history, buffer[next] is the first tap of the next output
+    private int have;               // valid samples in buffer
+    private int next;
+    private int phase;
+    private long consumed;          // input samples seen
+    private long produced;          // output samples emitted
+
+    public PolyphaseResampler(int inRate, int outRate, Quality quality) {
+        if (inRate <= 0 || outRate <= 0) throw new IllegalArgumentException("Sample rates must be positive");
+        final int g = gcd(inRate, outRate);
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.L = outRate / g;
+        this.M = inRate / g;
+        if (L > maxPhases) throw new IllegalArgumentException("Rate ratio " + outRate + "/" + inRate + " needs " + L + " filter phases, at most " + maxPhases);
+
+        //band edges in cycles per input sample, scaled down when decimating; the sinc cuts
+        //off in the middle of the transition band, whose width sets the Kaiser length
+        final double nyquist = 0.5 * Math.min(1.0, (double) L / M);
+        final double stopband = L > M ? Math.min(1.0, quality.stopband) : quality.stopband;
+        final double fc = nyquist * (quality.passband + stopband) / 2;
+        final double transition = nyquist * (stopband - quality.passband);
+        final double beta = quality.beta();
+        this.taps = 2 * (int) Math.ceil((quality.attenuation - 7.95) / (14.36 * transition) / 2 + 0.5);
+        this.bank = new double[L*taps];
+        final double i0Beta = besselI0(beta);
+        final double halfWidth = taps / 2.0;
+        for (int p = 0; p < L; p++){
+            for (int k = 0; k < taps; k++){
+                //distance in input samples from the output instant to tap k
+                final double t = (double) p / L + taps/2 - 1 - k;
+                final double w = Math.abs(t) >= halfWidth ? 0 : besselI0(beta * Math.sqrt(1 - (t/halfWidth)*(t/halfWidth))) / i0Beta;
+                bank[p*taps+k] = 2*fc * sinc(2*fc*t) * w;
+            }
+        }
+        reset();
+    }
+
+    public PolyphaseResampler(int inRate, int outRate) {
+        this(inRate, outRate, Quality.MEDIUM);
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    //filter taps per output sample
+    public int getTaps() {
+        return taps;
+    }
+
+    //forgets all input, as if newly constructed
+    public void reset() {
+        if (buffer == null) buffer = new double[4*taps];
+        have = taps/2 - 1;          //zeros before the first sample
+        Arrays.fill(buffer, 0, have, 0);
+        next = 0;
+        phase = 0;
+        consumed = 0;
+        produced = 0;
+    }
+
+    public int maxOutput(int length) {
+        return (int) ((long) (length + taps) * L / M) + 2;
+    }
+
+    public int process(double[] in, int length, double[] out) {
+        if (have + length > buffer.length){
+            compact();
+            if (have + length > buffer.length){
+                buffer = Arrays.copyOf(buffer, have + length + taps);
+            }
+        }
+        System.arraycopy(in, 0, buffer, have, length);
+        have += length;
+        consumed += length;
+        return run(out, 0, Long.MAX_VALUE);
+    }
+
+    public int flush(double[] out) {
+        return flush(out, 0);
+    }
+
+    //one-shot conversion of a whole signal
+    public static double[] resample(double[] in, int inRate, int outRate, Quality quality) {
+        final PolyphaseResampler r = new PolyphaseResampler(inRate, outRate, quality);
+        final double[] out = new double[r.maxOutput(in.length)];
+        final int n = r.process(in, in.length, out);
+        return Arrays.copyOf(out, n + r.flush(out, n));
+    }
+
+    private int flush(double[] out, int outOffset) {
+        //zeros after the last sample complete the right hand side of the remaining outputs
+        compact();
+        final int pad = taps/2 + 1;
+        if (have + pad > buffer.length){
+            buffer = Arrays.copyOf(buffer, have + pad);
+        }
+        Arrays.fill(buffer, have, have + pad, 0);
+        have += pad;
+        return run(out, outOffset, (consumed * L + M - 1) / M);
+    }
+
+    //emits outputs into out[outOffset..] while their taps are available, up to limit outputs in total
+    private int run(double[] out, int outOffset, long limit) {
+        final double[] buf = buffer;
+        final double[] h = bank;
+        final int T = taps;
+        int n = outOffset;
+        while (next + T <= have && produced < limit){
+            final int off = phase*T;
+            //eight independent sums, so the adds do not wait on each other
+            double a0 = 0, a1 = 0, a2 = 0, a3 = 0, a4 = 0, a5 = 0, a6 = 0, a7 = 0;
+            int k = 0;
+            for (; k + 7 < T; k += 8){
+                a0 += h[off+k]   * buf[next+k];
+                a1 += h[off+k+1] * buf[next+k+1];
+                a2 += h[off+k+2] * buf[next+k+2];
+                a3 += h[off+k+3] * buf[next+k+3];
+                a4 += h[off+k+4] * buf[next+k+4];
+                a5 += h[off+k+5] * buf[next+k+5];
+                a6 += h[off+k+6] * buf[next+k+6];
+                a7 += h[off+k+7] * buf[next+k+7];
+            }
+            for (; k < T; k++){
+                a0 += h[off+k] * buf[next+k];
+            }
+            out[n++] = ((a0 + a1) + (a2 + a3)) + ((a4 + a5) + (a6 + a7));
+            produced++;
+            phase += M;
+            next += phase / L;
+            phase %= L;
+        }
+        return n - outOffset;
+    }
+
+    //drops consumed history so buffer starts at next
+    private void compact() {
+        System.arraycopy(buffer, next, buffer, 0, have - next);
+        have -= next;
+        next = 0;
+    }
+
+    private static double sinc(double x) {
+        return x == 0 ? 1.0 : Math.sin(Math.PI*x) / (Math.PI*x);
+    }
+
+    //modified Bessel function of the first kind, order 0, by its power series
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        final double q = x*x/4;
+        for (int k = 1; k < 50 && term > 1e-17*sum; k++){
+            term *= q / ((double) k*k);
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0){
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -76,10 +76,11 @@ public class ReadExample
 
 
 //			Reading input
+			// buffer is interleaved, so read the input again as a downmix of all channels
+			WavFile monoFile = WavFile.openWavFile(new File(VIDEO2));
 			double[] input = new double[16000];
-			for (int i = 0; i < input.length; i++) {
-				input[i] = (double) buffer[i + 0];
-			}
+			monoFile.readMono(input, input.length);
+			monoFile.close();
 //			double[] input = buffer;
 
 
@@ -0,0 +1,157 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Planned FFT of real signals, with an inverse.
+ *
+ * A plan holds the twiddle factors and the bit reversal permutation for one power of two
+ * size, so transforms of that size do no trigonometry and allocate nothing. A real signal
+ * of n samples is transformed as a complex signal of n/2 samples (even samples real, odd
+ * samples imaginary), and the n/2+1 bins of the real spectrum are split out of that. This
+ * is about twice as fast as running FFT.process on the zero imaginary part.
+ *
+ * Spectra are kept as separate real and imaginary arrays of n/2+1 bins, like FFT. inverse()
+ * includes the 1/n scaling, so inverse(forward(x)) is x. Plans are immutable and can be
+ * shared between threads; of() caches one per size.
+ */
+public class RealFFT {
+
+    private final static ConcurrentHashMap<Integer, RealFFT> plans = new ConcurrentHashMap<>();
+
+    private final int n;
+    private final int half;
+    private final double[] cos;     // cos(2 pi k / n), k < n/2
+    private final double[] sin;     // sin(2 pi k / n), k < n/2
+    private final int[] reverse;    // bit reversal permutation of half
+
+    public RealFFT(int n) {
+        if (n < 2 || (n & (n - 1)) != 0) throw new IllegalArgumentException("FFT size must be a power of two of at least 2, got " + n);
+        this.n = n;
+        this.half = n / 2;
+        this.cos = new double[half];
+        this.sin = new double[half];
+        for (int k = 0; k < half; k++){
+            cos[k] = Math.cos(2*Math.PI*k/n);
+            sin[k] = Math.sin(2*Math.PI*k/n);
+        }
+        this.reverse = new int[half];
+        final int bits = Integer.numberOfTrailingZeros(half);
+        for (int k = 0; k < half; k++){
+            reverse[k] = bits == 0 ? 0 : Integer.reverse(k) >>> (32 - bits);
+        }
+    }
+
+    //shared plan for size n
+    public static RealFFT of(int n) {
+        return plans.computeIfAbsent(n, RealFFT::new);
+    }
+
+    //smallest power of two >= n
+    public static int sizeFor(int n) {
+        return n <= 2 ? 2 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    //bins in a spectrum, n/2+1
+    public int bins() {
+        return half + 1;
+    }
+
+    /**
+     * Spectrum of x[0..n) into re and im, n/2+1 bins each. x is not modified.
+     */
+    public void forward(double[] x, double[] re, double[] im) {
+        for (int k = 0; k < half; k++){
+            final int r = reverse[k];
+            re[r] = x[2*k];
+            im[r] = x[2*k+1];
+        }
+        transform(re, im, false);
+
+        //split the spectrum of z = even + i*odd into the spectrum of x
+        final double z0r = re[0], z0i = im[0];
+        re[0] = z0r + z0i;
+        im[0] = 0;
+        re[half] = z0r - z0i;
+        im[half] = 0;
+        for (int k = 1; k <= half/2; k++){
+            final int j = half - k;
+            final double er = 0.5*(re[k] + re[j]);
+            final double ei = 0.5*(im[k] - im[j]);
+            final double or = 0.5*(im[k] + im[j]);
+            final double oi = 0.5*(re[j] - re[k]);
+            final double wr = cos[k], wi = -sin[k];
+            final double tr = wr*or - wi*oi;
+            final double ti = wr*oi + wi*or;
+            re[k] = er + tr;
+            im[k] = ei + ti;
+            re[j] = er - tr;
+            im[j] = ti - ei;
+        }
+    }
+
+    /**
+     * Signal x[0..n) of the spectrum in re and im (n/2+1 bins). re and im are overwritten.
+     */
+    public void inverse(double[] re, double[] im, double[] x) {
+        //rebuild the spectrum of z = even + i*odd
+        final double x0 = re[0], xh = re[half];
+        re[0] = 0.5*(x0 + xh);
+        im[0] = 0.5*(x0 - xh);
+        for (int k = 1; k <= half/2; k++){
+            final int j = half - k;
+            final double er = 0.5*(re[k] + re[j]);
+            final double ei = 0.5*(im[k] - im[j]);
+            final double dr = 0.5*(re[k] - re[j]);
+            final double di = 0.5*(im[k] + im[j]);
+            //odd part: (X[k] - conj(X[j])) / (2 W^k)
+            final double wr = cos[k], wi = sin[k];
+            final double or = dr*wr - di*wi;
+            final double oi = dr*wi + di*wr;
+            re[k] = er - oi;
+            im[k] = ei + or;
+            re[j] = er + oi;
+            im[j] = or - ei;
+        }
+
+        //bit reversal in place, then the inverse transform
+        for (int k = 0; k < half; k++){
+            final int r = reverse[k];
+            if (r > k){
+                double t = re[k]; re[k] = re[r]; re[r] = t;
+                t = im[k]; im[k] = im[r]; im[r] = t;
+            }
+        }
+        transform(re, im, true);
+        final double scale = 1.0 / half;
+        for (int k = 0; k < half; k++){
+            x[2*k] = re[k] * scale;
+            x[2*k+1] = im[k] * scale;
+        }
+    }
+
+    //radix 2 butterflies over half points already in bit reversed order
+    private void transform(double[] re, double[] im, boolean inverse) {
+        final double sign = inverse ? 1 : -1;
+        for (int size = 2; size <= half; size <<= 1){
+            final int h = size >> 1;
+            final int step = n / size;
+            for (int start = 0; start < half; start += size){
+                for (int k = 0; k < h; k++){
+                    final double wr = cos[k*step];
+                    final double wi = sign * sin[k*step];
+                    final int a = start + k;
+                    final int b = a + h;
+                    final double tr = re[b]*wr - im[b]*wi;
+                    final double ti = re[b]*wi + im[b]*wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Cheap energy gate in front of MFCC for mostly silent streams.
+ *
+ * For every analysis window it computes RMS and peak level in dBFS straight from the
+ * decoded samples, one pass and no FFT. The gate opens when the RMS reaches openDb or
+ * the peak reaches peakOpenDb (short transients), and closes only after the RMS has
+ * stayed below closeDb for hangover consecutive windows. The gap between openDb and
+ * closeDb is the hysteresis that stops it chattering around a single threshold.
+ *
+ * Optionally an open window whose spectrum is flat (stationary, noise-like background)
+ * is still treated as silence. This costs one n_fft FFT of the window centre, which is
+ * still far cheaper than the full MFCC.
+ *
+ * process() runs MFCC only on open windows. Closed windows get the canonical silence
+ * features, which are exactly what MFCC.process returns for all-zero input of the same
+ * length.
+ *
+ * A gate keeps the state of one stream. StreamPipeline.setSilenceGates takes a factory
+ * and gives every stream its own.
+ */
+public class SilenceGate {
+
+    private final static double    minDb                = -200.0;
+
+    private final double openDb;
+    private final double closeDb;
+    private final int hangover;
+    private double peakOpenDb;
+    private double flatnessThreshold = 1.1; // > 1 disables the flatness check
+
+    private boolean open = false;
+    private int quietWindows = 0;
+    private long windows = 0;
+    private long skipped = 0;
+
+    private double lastRmsDb;
+    private double lastPeakDb;
+
+    private final FFT fft = new FFT();
+    private final double[] hann = new double[MFCC.n_fft];
+    private final double[] fftFrame = new double[MFCC.n_fft];
+    private float[] silence = new float[0];
+    private int silenceLength = -1;
+
+    public SilenceGate(double openDb, double closeDb, int hangover) {
+        if (closeDb > openDb) throw new IllegalArgumentException("closeDb must not be above openDb");
+        this.openDb = openDb;
+        this.closeDb = closeDb;
+        this.hangover = hangover;
+        this.peakOpenDb = openDb + 20.0;
+        //periodic Hann, as MFCC's window
+        for (int l = 0; l < MFCC.n_fft; l++){
+            hann[l] = 0.5 - 0.5 * Math.cos(2.0*Math.PI*l/MFCC.n_fft);
+        }
+    }
+
+    public void setPeakOpenDb(double peakOpenDb) {
+        this.peakOpenDb = peakOpenDb;
+    }
+
+    //Treat open windows with spectral flatness at or above threshold (0..1) as silence
+    public void setFlatnessThreshold(double threshold) {
+        this.flatnessThreshold = threshold;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public double getLastRmsDb() {
+        return lastRmsDb;
+    }
+
+    public double getLastPeakDb() {
+        return lastPeakDb;
+    }
+
+    public long getWindows() {
+        return windows;
+    }
+
+    public long getSkippedWindows() {
+        return skipped;
+    }
+
+    //Updates the gate with samples [from, from+length) and returns whether they should be processed
+    public boolean accept(double[] samples, int from, int length) {
+        double sumSq = 0;
+        double peak = 0;
+        for (int i = from; i < from+length; i++){
+            final double v = samples[i];
+            sumSq += v*v;
+            peak = Math.max(peak, Math.abs(v));
+        }
+        lastRmsDb = toDbfs(Math.sqrt(sumSq / Math.max(1, length)));
+        lastPeakDb = toDbfs(peak);
+
+        if (lastRmsDb >= openDb || lastPeakDb >= peakOpenDb){
+            open = true;
+            quietWindows = 0;
+        } else if (open){
+            if (lastRmsDb >= closeDb){
+                quietWindows = 0;
+            } else if (++quietWindows >= hangover){
+                open = false;
+            }
+        }
+
+        boolean process = open;
+        if (process && flatnessThreshold <= 1.0 && length >= MFCC.n_fft){
+            process = flatness(samples, from + (length - MFCC.n_fft) / 2) < flatnessThreshold;
+        }
+        windows++;
+        if (!process){
+            skipped++;
+        }
+        return process;
+    }
+
+    //Gated MFCC of the whole window: mfcc.process if the gate accepts it, canonical silence otherwise
+    public void process(MFCC mfcc, double[] window, float[] output) {
+        if (accept(window, 0, window.length)){
+            mfcc.process(window, output);
+        } else {
+            System.arraycopy(silenceFeatures(mfcc, window.length), 0, output, 0, MFCC.outputLength(window.length));
+        }
+    }
+
+    //as above on window[0..length) with a caller-owned workspace, for an MFCC shared between threads
+    public void process(MFCC mfcc, double[] window, int length, float[] output, MFCC.Workspace ws) {
+        if (accept(window, 0, length)){
+            mfcc.process(window, length, output, ws);
+        } else {
+            System.arraycopy(silenceFeatures(mfcc, length), 0, output, 0, MFCC.outputLength(length));
+        }
+    }
+
+    //MFCC of all-zero input of the given length, computed once per length on a workspace of its own
+    private float[] silenceFeatures(MFCC mfcc, int length) {
+        if (length != silenceLength){
+            silence = new float[MFCC.outputLength(length)];
+            mfcc.process(new double[length], length, silence, new MFCC.Workspace());
+            silenceLength = length;
+        }
+        return silence;
+    }
+
+    //spectral flatness of the Hann windowed n_fft samples starting at offset, librosa
+    private double flatness(double[] samples, int offset) {
+        for (int l = 0; l < MFCC.n_fft; l++){
+            fftFrame[l] = hann[l] * samples[offset+l];
+        }
+        fft.process(fftFrame);
+        double logSum = 0;
+        double sum = 0;
+        for (int k = 0; k < MFCC.n_bins; k++){
+            final double p = Math.max(fft.real[k]*fft.real[k] + fft.imag[k]*fft.imag[k], 1e-10);
+            logSum += Math.log(p);
+            sum += p;
+        }
+        return Math.exp(logSum / MFCC.n_bins) / (sum / MFCC.n_bins);
+    }
+
+    private static double toDbfs(double amplitude) {
+        return amplitude > 0 ? Math.max(minDb, 20.0*Math.log10(amplitude)) : minDb;
+    }
+
+    public void reset() {
+        open = false;
+        quietWindows = 0;
+    }
+}
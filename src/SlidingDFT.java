@@ -0,0 +1,187 @@
+import java.util.Arrays;
+
+/**
+ * Sliding DFT: a chosen range of DFT bins of the last n samples, updated every sample.
+ *
+ * The STFT in MFCC gives a spectrum every hop_length samples at the cost of a full n_fft
+ * FFT each time. For low latency monitoring of a few bins, each bin k is instead updated
+ * per input sample in O(1):
+ *
+ *     S_k <- r e^(2 pi i k / n) (S_k + x[t] - r^n x[t-n])
+ *
+ * With r = 1 this is exactly the DFT of the last n samples (oldest first), but rounding
+ * errors in the twiddle make the undamped recursion drift. The damping r < 1 makes it
+ * stable: S_k is then the DFT of the window weighted by r^(n-i) for sample i, which is
+ * within 1 - r^n of the plain DFT. Every resyncInterval samples S is recomputed from the
+ * window with one real FFT of that same weighted window, which bounds any accumulated
+ * drift; getResyncError() reports how large it had become.
+ *
+ * power() applies MFCC's periodic Hann window in the frequency domain (a 3 tap kernel on
+ * neighbouring bins), so it is comparable with MFCC's power spectrum of the same frame.
+ */
+public class SlidingDFT {
+
+    private final int n;
+    private final int firstBin;
+    private final int lastBin;
+    private final int lo;               // tracked bins, the requested ones plus a neighbour each side for power()
+    private final int hi;
+    private final double damping;
+    private final double dampingN;      // damping^n
+    private final int resyncInterval;
+
+    private final double[] twRe;        // r e^(2 pi i k / n) per tracked bin
+    private final double[] twIm;
+    private final double[] re;          // S_k per tracked bin
+    private final double[] im;
+    private final double[] window;      // ring of the last n samples
+    private final double[] weights;     // r^(n-i) for window sample i, oldest first
+    private final RealFFT fft;
+    private final double[] frame;
+    private final double[] fullRe;
+    private final double[] fullIm;
+
+    private int pos;                    // next slot of the ring, also its oldest sample
+    private int sinceResync;
+    private double resyncError;
+
+    public SlidingDFT(int n, int firstBin, int lastBin) {
+        this(n, firstBin, lastBin, 0.99999, 4*n);
+    }
+
+    public SlidingDFT(int n, int firstBin, int lastBin, double damping, int resyncInterval) {
+        if (n < 4 || (n & (n - 1)) != 0) throw new IllegalArgumentException("Window must be a power of two of at least 4, got " + n);
+        if (firstBin < 0 || lastBin > n/2 || firstBin > lastBin) throw new IllegalArgumentException("Bins must satisfy 0 <= first <= last <= " + n/2);
+        if (damping <= 0 || damping > 1) throw new IllegalArgumentException("Damping must be in (0, 1]");
+        if (resyncInterval < 1) throw new IllegalArgumentException("Resync interval must be positive");
+        this.n = n;
+        this.firstBin = firstBin;
+        this.lastBin = lastBin;
+        this.lo = Math.max(0, firstBin - 1);
+        this.hi = Math.min(n/2, lastBin + 1);
+        this.damping = damping;
+        this.dampingN = Math.pow(damping, n);
+        this.resyncInterval = resyncInterval;
+
+        final int bins = hi - lo + 1;
+        this.twRe = new double[bins];
+        this.twIm = new double[bins];
+        for (int b = 0; b < bins; b++){
+            twRe[b] = damping * Math.cos(2*Math.PI*(lo + b)/n);
+            twIm[b] = damping * Math.sin(2*Math.PI*(lo + b)/n);
+        }
+        this.re = new double[bins];
+        this.im = new double[bins];
+        this.window = new double[n];
+        this.weights = new double[n];
+        for (int i = 0; i < n; i++){
+            weights[i] = Math.pow(damping, n - i);
+        }
+        this.fft = RealFFT.of(n);
+        this.frame = new double[n];
+        this.fullRe = new double[fft.bins()];
+        this.fullIm = new double[fft.bins()];
+    }
+
+    public int getSize() {
+        return n;
+    }
+
+    public int getFirstBin() {
+        return firstBin;
+    }
+
+    public int getLastBin() {
+        return lastBin;
+    }
+
+    public int getBinCount() {
+        return lastBin - firstBin + 1;
+    }
+
+    public double getDamping() {
+        return damping;
+    }
+
+    //samples between recomputations of the bins with a full FFT
+    public int getResyncInterval() {
+        return resyncInterval;
+    }
+
+    //largest difference between the running and the recomputed bins at the last resync
+    public double getResyncError() {
+        return resyncError;
+    }
+
+    //forgets all input, as if newly constructed
+    public void reset() {
+        Arrays.fill(window, 0);
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        pos = 0;
+        sinceResync = 0;
+        resyncError = 0;
+    }
+
+    /**
+     * Slides the window over samples [offset, offset+length), one update per sample.
+     */
+    public void process(double[] samples, int offset, int length) {
+        final int bins = re.length;
+        final double[] sr = re, si = im, wr = twRe, wi = twIm;
+        for (int t = offset, end = offset + length; t < end; t++){
+            final double x = samples[t];
+            final double delta = x - dampingN * window[pos];
+            window[pos] = x;
+            if (++pos == n) pos = 0;
+            for (int b = 0; b < bins; b++){
+                final double a = sr[b] + delta;
+                final double c = si[b];
+                sr[b] = a*wr[b] - c*wi[b];
+                si[b] = a*wi[b] + c*wr[b];
+            }
+            if (++sinceResync == resyncInterval) resync();
+        }
+    }
+
+    public double getReal(int bin) {
+        return re[bin - lo];
+    }
+
+    public double getImag(int bin) {
+        return im[bin - lo];
+    }
+
+    /**
+     * Hann windowed power of bins firstBin..lastBin into out[0..getBinCount()).
+     */
+    public void power(double[] out) {
+        for (int k = firstBin; k <= lastBin; k++){
+            //periodic Hann: X_w[k] = 0.5 X[k] - 0.25 (X[k-1] + X[k+1]), X[-k] = X[n-k] = conj(X[k])
+            final double pr = k == 0 ? re[1 - lo] : re[k - 1 - lo];
+            final double pi = k == 0 ? -im[1 - lo] : im[k - 1 - lo];
+            final double nr = k == n/2 ? re[k - 1 - lo] : re[k + 1 - lo];
+            final double ni = k == n/2 ? -im[k - 1 - lo] : im[k + 1 - lo];
+            final double wr = 0.5*re[k - lo] - 0.25*(pr + nr);
+            final double wi = 0.5*im[k - lo] - 0.25*(pi + ni);
+            out[k - firstBin] = wr*wr + wi*wi;
+        }
+    }
+
+    //recomputes the tracked bins from the window with one FFT
+    private void resync() {
+        sinceResync = 0;
+        //the current sample has weight r^1, matching the recursion
+        for (int i = 0; i < n; i++){
+            frame[i] = weights[i] * window[(pos + i) & (n - 1)];
+        }
+        fft.forward(frame, fullRe, fullIm);
+        double error = 0;
+        for (int b = 0; b < re.length; b++){
+            error = Math.max(error, Math.abs(re[b] - fullRe[lo + b]) + Math.abs(im[b] - fullIm[lo + b]));
+            re[b] = fullRe[lo + b];
+            im[b] = fullIm[lo + b];
+        }
+        resyncError = error;
+    }
+}
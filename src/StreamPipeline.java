@@ -0,0 +1,597 @@
+import java.io.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Streaming feature pipeline: source -> resampler -> framer -> MFCC -> sink.
+ *
+ * Every stream runs as three threads connected by two links. The source thread reads
+ * and resamples chunks of audio, the extractor thread cuts them into analysis windows
+ * and runs MFCC on each, and the sink thread hands the features to the caller. A link
+ * is a pair of lock-free single producer, single consumer rings around a fixed set of
+ * recycled buffers: full ones go downstream, empty ones come back. A stage that gets
+ * ahead blocks (parks) until the next one returns a buffer, so a slow sink slows the
+ * extractor, which slows the source, and memory per stream stays constant.
+ *
+ * On JDK 21 and later the threads are virtual, so one JVM can serve thousands of
+ * streams with carrier threads equal to the cores. Older JDKs fall back to platform
+ * daemon threads.
+ *
+ * The MFCC bases are shared by all streams; each stream owns its workspace and buffers.
+ *
+ * Every chunk carries the source's capture time. A window inherits the capture time of
+ * the chunk that completed it, and the sink thread records the capture to features
+ * latency of each window in the stream's LatencyHistogram.
+ *
+ * With setSilenceGates, every stream gets its own SilenceGate and windows it keeps closed
+ * skip MFCC: the sink gets the canonical silence features for them instead.
+ *
+ * Anything a stage throws, Errors included, fails the stream: the links are closed so
+ * every other stage unparks and stops, and the sink gets onError. An Error reaches the
+ * sink wrapped in an ExecutionException and is rethrown by Stream.await().
+ */
+public class StreamPipeline
+{
+	// Blocking audio source. Samples are mono at getSampleRate().
+	public interface Source extends Closeable
+	{
+		int getSampleRate();
+
+		// Reads up to length samples into buffer, blocking until at least one is available.
+		// Returns the number read, or -1 at the end of the stream.
+		int read(double[] buffer, int length) throws IOException, WavFileException;
+
+		// System.nanoTime() at which the last sample returned by read() was captured
+		default long captureTime()
+		{
+			return System.nanoTime();
+		}
+	}
+
+	// Stateful sample rate converter, one instance per stream
+	public interface Resampler
+	{
+		// Largest number of samples process() or flush() can return for length input samples
+		int maxOutput(int length);
+
+		// Converts in[0..length) into out, returns the number of samples written
+		int process(double[] in, int length, double[] out);
+
+		// Drains samples still held back at the end of the stream
+		int flush(double[] out);
+	}
+
+	// Called from the stream's sink thread only
+	public interface Sink
+	{
+		// features[0..length) of window number window; the array is reused after this returns
+		void onFeatures(long window, float[] features, int length);
+
+		void onEnd();
+
+		// The stream failed; an Error thrown by a stage arrives as the cause of an ExecutionException
+		void onError(Exception e);
+	}
+
+	private final static int CHUNK_SAMPLES = 4096;
+	private final static int LINK_BUFFERS = 4;
+	private final static ThreadFactory THREADS = threadFactory();
+
+	private final MFCC mfcc = new MFCC();
+	private final int windowSamples;
+	private final int hopSamples;
+	private volatile Supplier<SilenceGate> gates;
+
+	// Windows of windowSamples at 16 kHz, advanced by hopSamples
+	public StreamPipeline(int windowSamples, int hopSamples)
+	{
+		if (windowSamples < MFCC.n_fft) throw new IllegalArgumentException("Window must be at least " + MFCC.n_fft + " samples");
+		if (hopSamples < 1 || hopSamples > windowSamples) throw new IllegalArgumentException("Hop must be between 1 and the window length");
+		this.windowSamples = windowSamples;
+		this.hopSamples = hopSamples;
+	}
+
+	// Stage timings of the shared MFCC for all streams, or null to stop reporting
+	public void setMetricsListener(MetricsListener metrics)
+	{
+		mfcc.setMetricsListener(metrics);
+	}
+
+	// One SilenceGate per stream started from now on, or null to run MFCC on every window
+	public void setSilenceGates(Supplier<SilenceGate> gates)
+	{
+		this.gates = gates;
+	}
+
+	public static boolean isVirtual()
+	{
+		return !(THREADS instanceof PlatformThreads);
+	}
+
+	// Starts a stream, converting the source to 16 kHz with a PolyphaseResampler if needed
+	public Stream start(Source source, Sink sink)
+	{
+		if (source.getSampleRate() == (int) MFCC.sampleRate) return start(source, null, sink);
+		return start(source, new PolyphaseResampler(source.getSampleRate(), (int) MFCC.sampleRate), sink);
+	}
+
+	// Starts a stream; resampler may be null when the source is already at 16 kHz
+	public Stream start(Source source, Resampler resampler, Sink sink)
+	{
+		Stream stream = new Stream(source, resampler, sink);
+		stream.start();
+		return stream;
+	}
+
+	// A buffer travelling along a link. length < 0 marks the end of the stream.
+	static final class Chunk
+	{
+		final double[] samples;
+		final float[] features;
+		int length;
+		long window;
+		long timestamp;
+
+		Chunk(int samples, int features)
+		{
+			this.samples = new double[samples];
+			this.features = new float[features];
+		}
+	}
+
+	// Bounded set of recycled chunks between two stages
+	static final class Link
+	{
+		final Ring<Chunk> full = new Ring<>(LINK_BUFFERS);
+		final Ring<Chunk> free = new Ring<>(LINK_BUFFERS);
+
+		Link(int samples, int features)
+		{
+			for (int i=0 ; i<LINK_BUFFERS ; i++) free.offer(new Chunk(samples, features));
+		}
+
+		void close()
+		{
+			full.close();
+			free.close();
+		}
+	}
+
+	public final class Stream
+	{
+		private final Source source;
+		private final Resampler resampler;
+		private final SilenceGate gate;
+		private final Sink sink;
+		private final Link audio;
+		private final Link features;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicLong windows = new AtomicLong();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private volatile Throwable failure;
+
+		private Stream(Source source, Resampler resampler, Sink sink)
+		{
+			this.source = source;
+			this.resampler = resampler;
+			final Supplier<SilenceGate> gates = StreamPipeline.this.gates;
+			this.gate = gates == null ? null : gates.get();
+			this.sink = sink;
+			this.audio = new Link(resampler == null ? CHUNK_SAMPLES : resampler.maxOutput(CHUNK_SAMPLES), 0);
+			this.features = new Link(0, MFCC.outputLength(windowSamples));
+		}
+
+		private void start()
+		{
+			THREADS.newThread(this::sinkLoop).start();
+			THREADS.newThread(this::extractLoop).start();
+			THREADS.newThread(this::sourceLoop).start();
+		}
+
+		// Waits until the sink has seen onEnd or onError, and rethrows an Error that failed the stream
+		public void await() throws InterruptedException
+		{
+			done.await();
+			if (failure instanceof Error) throw (Error) failure;
+		}
+
+		public boolean isDone()
+		{
+			return done.getCount() == 0;
+		}
+
+		// Stops all stages; the sink gets onError with a CancellationException
+		public void cancel()
+		{
+			fail(new CancellationException("Stream cancelled"));
+		}
+
+		public long getWindows()
+		{
+			return windows.get();
+		}
+
+		// Capture to features latency of every window delivered so far
+		public LatencyHistogram getLatency()
+		{
+			return latency;
+		}
+
+		// Null while running or after a clean end
+		public Throwable getFailure()
+		{
+			return failure;
+		}
+
+		private void fail(Throwable e)
+		{
+			synchronized (this)
+			{
+				if (failure == null) failure = e;
+			}
+			audio.close();
+			features.close();
+		}
+
+		private void sourceLoop()
+		{
+			final double[] in = resampler == null ? null : new double[CHUNK_SAMPLES];
+			try
+			{
+				while (true)
+				{
+					Chunk chunk = audio.free.take();
+					int n;
+					if (resampler == null)
+					{
+						n = source.read(chunk.samples, CHUNK_SAMPLES);
+					}
+					else
+					{
+						final int read = source.read(in, CHUNK_SAMPLES);
+						n = read < 0 ? -1 : resampler.process(in, read, chunk.samples);
+					}
+					if (n < 0)
+					{
+						if (resampler != null && (chunk.length = resampler.flush(chunk.samples)) > 0)
+						{
+							chunk.timestamp = source.captureTime();
+							audio.full.put(chunk);
+							chunk = audio.free.take();
+						}
+						chunk.length = -1;
+						audio.full.put(chunk);
+						return;
+					}
+					chunk.length = n;
+					chunk.timestamp = source.captureTime();
+					audio.full.put(chunk);
+				}
+			}
+			catch (CancellationException e)
+			{
+				// another stage failed
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+			finally
+			{
+				try
+				{
+					source.close();
+				}
+				catch (Throwable e)
+				{
+					fail(e);
+				}
+			}
+		}
+
+		// Framer and extractor: fills window, emits it, then keeps its last windowSamples - hopSamples
+		private void extractLoop()
+		{
+			final MFCC.Workspace ws = new MFCC.Workspace();
+			final double[] window = new double[windowSamples];
+			int filled = 0;
+			int pending = 0;	// samples in window not covered by an emitted window yet
+			long index = 0;
+			long timestamp = 0;
+			try
+			{
+				while (true)
+				{
+					final Chunk in = audio.full.take();
+					if (in.length < 0)
+					{
+						audio.free.put(in);
+						// Trailing partial window, if long enough to frame
+						if (pending > 0 && filled >= MFCC.n_fft) emit(window, filled, index, timestamp, ws);
+						Chunk end = features.free.take();
+						end.length = -1;
+						features.full.put(end);
+						return;
+					}
+					timestamp = in.timestamp;
+					int pos = 0;
+					while (pos < in.length)
+					{
+						final int n = Math.min(in.length - pos, windowSamples - filled);
+						System.arraycopy(in.samples, pos, window, filled, n);
+						filled += n;
+						pending += n;
+						pos += n;
+						if (filled == windowSamples)
+						{
+							emit(window, filled, index++, timestamp, ws);
+							System.arraycopy(window, hopSamples, window, 0, windowSamples - hopSamples);
+							filled -= hopSamples;
+							pending = 0;
+						}
+					}
+					audio.free.put(in);
+				}
+			}
+			catch (CancellationException e)
+			{
+				// another stage failed
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+		}
+
+		private void emit(double[] window, int length, long index, long timestamp, MFCC.Workspace ws)
+		{
+			Chunk out = features.free.take();
+			if (gate == null) mfcc.process(window, length, out.features, ws);
+			else gate.process(mfcc, window, length, out.features, ws);
+			out.length = MFCC.outputLength(length);
+			out.window = index;
+			out.timestamp = timestamp;
+			features.full.put(out);
+		}
+
+		private void sinkLoop()
+		{
+			try
+			{
+				while (true)
+				{
+					Chunk chunk = features.full.take();
+					if (chunk.length < 0) break;
+					latency.record(System.nanoTime() - chunk.timestamp);
+					sink.onFeatures(chunk.window, chunk.features, chunk.length);
+					windows.incrementAndGet();
+					features.free.put(chunk);
+				}
+			}
+			catch (CancellationException e)
+			{
+				// reported below
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+			try
+			{
+				final Throwable f = failure;
+				if (f == null) sink.onEnd();
+				else sink.onError(f instanceof Exception ? (Exception) f : new ExecutionException(f));
+			}
+			catch (Throwable e)
+			{
+				fail(e);
+			}
+			finally
+			{
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Bounded lock-free ring for exactly one producer and one consumer thread.
+	 * put() and take() park when the ring is full or empty. Each side publishes itself
+	 * before re-checking, and the other side unparks it after every successful
+	 * operation, so a wakeup is never lost. close() releases both sides with a
+	 * CancellationException.
+	 */
+	static final class Ring<T>
+	{
+		private final Object[] items;
+		private final int mask;
+		private final AtomicLong head = new AtomicLong();	// next to take
+		private final AtomicLong tail = new AtomicLong();	// next to put
+		private volatile Thread producer;
+		private volatile Thread consumer;
+		private volatile boolean closed;
+
+		Ring(int capacity)
+		{
+			if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+			items = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		boolean offer(T item)
+		{
+			final long t = tail.get();
+			if (t - head.get() == items.length) return false;
+			items[(int) t & mask] = item;
+			tail.set(t + 1);
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		T poll()
+		{
+			final long h = head.get();
+			if (h == tail.get()) return null;
+			final T item = (T) items[(int) h & mask];
+			items[(int) h & mask] = null;
+			head.set(h + 1);
+			return item;
+		}
+
+		void put(T item)
+		{
+			if (!offer(item))
+			{
+				producer = Thread.currentThread();
+				try
+				{
+					while (!offer(item))
+					{
+						if (closed) throw new CancellationException();
+						LockSupport.park(this);
+					}
+				}
+				finally
+				{
+					producer = null;
+				}
+			}
+			unpark(consumer);
+		}
+
+		T take()
+		{
+			T item = poll();
+			if (item == null)
+			{
+				consumer = Thread.currentThread();
+				try
+				{
+					while ((item = poll()) == null)
+					{
+						if (closed) throw new CancellationException();
+						LockSupport.park(this);
+					}
+				}
+				finally
+				{
+					consumer = null;
+				}
+			}
+			unpark(producer);
+			return item;
+		}
+
+		void close()
+		{
+			closed = true;
+			unpark(producer);
+			unpark(consumer);
+		}
+
+		private static void unpark(Thread t)
+		{
+			if (t != null) LockSupport.unpark(t);
+		}
+	}
+
+	// Mono view of a WavFile; multichannel files use channel 0
+	public static class WavSource implements Source
+	{
+		private final WavFile wavFile;
+
+		public WavSource(File file) throws IOException, WavFileException
+		{
+			wavFile = WavFile.openWavFile(file);
+			wavFile.setChannel(0);
+		}
+
+		public int getSampleRate()
+		{
+			return (int) wavFile.getSampleRate();
+		}
+
+		public int read(double[] buffer, int length) throws IOException, WavFileException
+		{
+			final int n = wavFile.readMono(buffer, length);
+			return n == 0 ? -1 : n;
+		}
+
+		public void close() throws IOException
+		{
+			wavFile.close();
+		}
+	}
+
+	// Runs under platform threads when virtual threads are unavailable
+	private static final class PlatformThreads implements ThreadFactory
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "stream-pipeline");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	// Thread.ofVirtual().factory() when the JDK has it, looked up reflectively so the source
+	// still compiles for older releases
+	private static ThreadFactory threadFactory()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, "stream-pipeline-", 0L);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return new PlatformThreads();
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: StreamPipeline <wav file>...");
+			System.exit(1);
+		}
+
+		StreamPipeline pipeline = new StreamPipeline((int) MFCC.sampleRate, (int) MFCC.sampleRate);
+		Stream[] streams = new Stream[args.length];
+		final long start = System.nanoTime();
+		try
+		{
+			for (int i=0 ; i<args.length ; i++)
+			{
+				final String name = args[i];
+				streams[i] = pipeline.start(new WavSource(new File(name)), new Sink()
+				{
+					public void onFeatures(long window, float[] features, int length) { }
+
+					public void onEnd() { }
+
+					public void onError(Exception e) { System.err.printf("%s: %s\n", name, e); }
+				});
+			}
+			long windows = 0;
+			for (int i=0 ; i<streams.length ; i++)
+			{
+				streams[i].await();
+				windows += streams[i].getWindows();
+				System.out.printf("%s: %d windows\n", args[i], streams[i].getWindows());
+			}
+			System.out.printf("Streams: %d, Windows: %d, Virtual threads: %b, Time: %.1f ms\n",
+					streams.length, windows, isVirtual(), (System.nanoTime() - start) / 1e6);
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+import java.io.File;
+
+/**
+ * Bank of Goertzel detectors for narrowband alarm sounds: smoke alarms near 3 kHz,
+ * microwave beeps, doorbell chimes.
+ *
+ * Each Target watches one frequency. Its samples are cut into blocks of about
+ * sampleRate / bandwidth samples, and a Goertzel recurrence (one multiply-add per sample)
+ * gives the power at the target frequency for every block. A block counts as "on" when
+ * the tone's level reaches minLevelDb and the tone holds at least minPurity of the block's
+ * energy, which rejects broadband sounds that are merely loud.
+ *
+ * On blocks form beeps, and a pattern rule turns beeps into events: count beeps, each
+ * lasting between minOnMs and maxOnMs, separated by gaps of at most maxGapMs. The event
+ * fires as soon as the last beep has lasted minOnMs, so the delay after that is at most
+ * one block: 10 ms for a 100 Hz bandwidth. A tone that stays on fires once. The default
+ * rule is a single beep of 50 ms.
+ *
+ * Cost is O(samples) per target, with no FFT, window or mel projection; see main() for a
+ * comparison with MFCC on the same audio.
+ */
+public class ToneDetector {
+
+    private final static double    minDb                = -200.0;
+
+    public interface Listener {
+        //target's pattern completed, at sample index sample of the stream
+        void onTone(Target target, long sample, double levelDb);
+    }
+
+    /**
+     * One frequency to watch, with its detection thresholds and pattern rule.
+     */
+    public static final class Target {
+        private final String name;
+        private final double frequency;
+        private final double bandwidth;
+        private double minLevelDb = -50.0;
+        private double minPurity = 0.5;
+        private int count = 1;
+        private double minOnMs = 50.0;
+        private double maxOnMs = 0;        // 0: no limit
+        private double maxGapMs = 1000.0;
+
+        public Target(String name, double frequency, double bandwidth) {
+            if (frequency <= 0) throw new IllegalArgumentException("Frequency must be positive");
+            if (bandwidth <= 0) throw new IllegalArgumentException("Bandwidth must be positive");
+            this.name = name;
+            this.frequency = frequency;
+            this.bandwidth = bandwidth;
+        }
+
+        //RMS level of the tone in dBFS, and its share of the block's energy (0..1), that make a block "on"
+        public Target setThresholds(double minLevelDb, double minPurity) {
+            this.minLevelDb = minLevelDb;
+            this.minPurity = minPurity;
+            return this;
+        }
+
+        //count beeps of minOnMs to maxOnMs (0 for no limit) each, at most maxGapMs apart
+        public Target setPattern(int count, double minOnMs, double maxOnMs, double maxGapMs) {
+            if (count < 1) throw new IllegalArgumentException("Pattern needs at least one beep");
+            if (maxOnMs != 0 && maxOnMs < minOnMs) throw new IllegalArgumentException("maxOnMs must be 0 or at least minOnMs");
+            this.count = count;
+            this.minOnMs = minOnMs;
+            this.maxOnMs = maxOnMs;
+            this.maxGapMs = maxGapMs;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getFrequency() {
+            return frequency;
+        }
+
+        public double getBandwidth() {
+            return bandwidth;
+        }
+
+        public String toString() {
+            return name + " " + frequency + " Hz";
+        }
+    }
+
+    //per target Goertzel and pattern state
+    private static final class State {
+        final Target target;
+        final int blockLength;
+        final double coeff;
+        final double blockMs;
+
+        double s1, s2, energy;
+        int filled;
+        boolean on;
+        int onBlocks;
+        int offBlocks;
+        int beeps;                  // complete beeps of the current pattern
+        boolean latched;            // fired during the current beep
+        double levelDb = minDb;
+
+        State(Target target, int sampleRate) {
+            if (target.frequency >= sampleRate / 2.0) throw new IllegalArgumentException(target + " is not below Nyquist at " + sampleRate + " Hz");
+            this.target = target;
+            this.blockLength = Math.max(1, (int) Math.round(sampleRate / target.bandwidth));
+            this.coeff = 2 * Math.cos(2 * Math.PI * target.frequency / sampleRate);
+            this.blockMs = 1000.0 * blockLength / sampleRate;
+        }
+    }
+
+    private final int sampleRate;
+    private final Listener listener;
+    private final State[] states;
+    private long position;
+    private long events;
+
+    public ToneDetector(int sampleRate, Listener listener, Target... targets) {
+        if (targets.length == 0) throw new IllegalArgumentException("No targets");
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+        this.states = new State[targets.length];
+        for (int t = 0; t < targets.length; t++){
+            states[t] = new State(targets[t], sampleRate);
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    //Goertzel block length of target t, in samples
+    public int getBlockLength(int t) {
+        return states[t].blockLength;
+    }
+
+    //whether target t's tone was present in its last block
+    public boolean isOn(int t) {
+        return states[t].on;
+    }
+
+    //tone level of target t's last block, dBFS
+    public double getLevelDb(int t) {
+        return states[t].levelDb;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    //forgets all input, as if newly constructed
+    public void reset() {
+        for (int t = 0; t < states.length; t++){
+            states[t] = new State(states[t].target, sampleRate);
+        }
+        position = 0;
+        events = 0;
+    }
+
+    /**
+     * Feeds samples [offset, offset+length) of the stream.
+     */
+    public void process(double[] samples, int offset, int length) {
+        for (State s : states){
+            int i = 0;
+            while (i < length){
+                //Goertzel up to the end of the block or the input
+                final int n = Math.min(length - i, s.blockLength - s.filled);
+                final double c = s.coeff;
+                double s1 = s.s1, s2 = s.s2, e = s.energy;
+                for (int k = offset + i, end = offset + i + n; k < end; k++){
+                    final double x = samples[k];
+                    final double s0 = x + c*s1 - s2;
+                    s2 = s1;
+                    s1 = s0;
+                    e += x*x;
+                }
+                s.s1 = s1;
+                s.s2 = s2;
+                s.energy = e;
+                s.filled += n;
+                i += n;
+                if (s.filled == s.blockLength){
+                    endBlock(s, position + i);
+                }
+            }
+        }
+        position += length;
+    }
+
+    //tone power, on/off decision and pattern rule at the end of a block ending before sample end
+    private void endBlock(State s, long end) {
+        final int N = s.blockLength;
+        final double power = s.s1*s.s1 + s.s2*s.s2 - s.coeff*s.s1*s.s2;
+        //mean square of the tone component, and its share of the block's mean square
+        final double toneMs = 2 * power / ((double) N * N);
+        final double purity = s.energy > 0 ? toneMs / (s.energy / N) : 0;
+        s.levelDb = toneMs > 0 ? Math.max(minDb, 10 * Math.log10(toneMs)) : minDb;
+        s.on = s.levelDb >= s.target.minLevelDb && purity >= s.target.minPurity;
+        s.s1 = s.s2 = s.energy = 0;
+        s.filled = 0;
+
+        final Target t = s.target;
+        if (s.on){
+            s.onBlocks ++;
+            s.offBlocks = 0;
+            if (!s.latched && s.beeps == t.count - 1 && s.onBlocks * s.blockMs >= t.minOnMs){
+                s.latched = true;
+                s.beeps = 0;
+                events ++;
+                if (listener != null) listener.onTone(t, end, s.levelDb);
+            }
+            return;
+        }
+
+        if (s.onBlocks > 0){
+            //a beep just ended
+            final double onMs = s.onBlocks * s.blockMs;
+            if (!s.latched){
+                final boolean valid = onMs >= t.minOnMs && (t.maxOnMs == 0 || onMs <= t.maxOnMs);
+                s.beeps = valid ? s.beeps + 1 : 0;
+            }
+            s.latched = false;
+            s.onBlocks = 0;
+        }
+        s.offBlocks ++;
+        if (s.beeps > 0 && s.offBlocks * s.blockMs > t.maxGapMs) s.beeps = 0;
+    }
+
+    /**
+     * Runs a detector bank over a WAV file and compares its time with MFCC on the same audio.
+     * Targets are given as frequency[:bandwidth[:count]] in Hz, e.g. 3100:100:3 for a three
+     * beep smoke alarm.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2){
+            System.err.println("Usage: ToneDetector <wav file> <frequency[:bandwidth[:count]]>...");
+            System.exit(1);
+        }
+        try {
+            final WavFile wavFile = WavFile.openWavFile(new File(args[0]));
+            final int rate = (int) wavFile.getSampleRate();
+            final int numFrames = (int) wavFile.getNumFrames();
+            final double[] y = new double[numFrames];
+            wavFile.readMono(y, numFrames);
+            wavFile.close();
+
+            final Target[] targets = new Target[args.length - 1];
+            for (int t = 0; t < targets.length; t++){
+                final String[] f = args[t + 1].split(":");
+                final double frequency = Double.parseDouble(f[0]);
+                targets[t] = new Target(f[0] + " Hz", frequency, f.length > 1 ? Double.parseDouble(f[1]) : 100);
+                if (f.length > 2) targets[t].setPattern(Integer.parseInt(f[2]), 50, 0, 1000);
+            }
+            final ToneDetector detector = new ToneDetector(rate, (target, sample, levelDb) ->
+                    System.out.printf("%8.3f s  %s  %.1f dBFS\n", (double) sample / rate, target, levelDb), targets);
+
+            final int chunk = 1024;
+            long start = System.nanoTime();
+            for (int i = 0; i < numFrames; i += chunk){
+                detector.process(y, i, Math.min(chunk, numFrames - i));
+            }
+            final double detectorMs = (System.nanoTime() - start) / 1e6;
+
+            final float[] features = new float[MFCC.outputLength(numFrames)];
+            final MFCC mfcc = new MFCC();
+            start = System.nanoTime();
+            mfcc.process(y, numFrames, features, new MFCC.Workspace());
+            final double mfccMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%d events, %d targets, %.1f s of audio\n", detector.getEvents(), targets.length, (double) numFrames / rate);
+            System.out.printf("Detector %.1f ms, MFCC %.1f ms (%.1f%%)\n", detectorMs, mfccMs, 100 * detectorMs / mfccMs);
+        } catch (Exception e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+}
@@ -43,6 +43,14 @@ public class WavFile
 	private int bytesRead;					// Bytes read after last read into local buffer
 	private long frameCounter;				// Current number of frames read or written
 
+	// Mono read path (readMono)
+	private double[] downmix;				// Weight per channel, null averages all channels
+	private double dcPole;					// Pole of the DC blocker, 0 disables it
+	private double preEmphasis;			// Pre-emphasis coefficient, 0 disables it
+	private double dcLastIn;				// DC blocker input and output of the previous frame
+	private double dcLastOut;
+	private double preLast;					// Pre-emphasis input of the previous frame
+
 	// Cannot instantiate WavFile directly, must either use newWavFile() or openWavFile()
 	private WavFile()
 	{
@@ -74,6 +82,37 @@ public class WavFile
 		return validBits;
 	}
 
+	// Channel weights for readMono, one per channel; null (the default) averages all channels
+	public void setDownmix(double[] weights)
+	{
+		if (weights != null && weights.length != numChannels) throw new IllegalArgumentException("Need " + numChannels + " downmix weights, got " + weights.length);
+		downmix = weights == null ? null : weights.clone();
+	}
+
+	// Makes readMono return a single channel
+	public void setChannel(int channel)
+	{
+		if (channel < 0 || channel >= numChannels) throw new IllegalArgumentException("No channel " + channel + " in a " + numChannels + " channel file");
+		double[] weights = new double[numChannels];
+		weights[channel] = 1;
+		downmix = weights;
+	}
+
+	// DC blocker for readMono, y[n] = x[n] - x[n-1] + pole * y[n-1]; 0 (the default) disables it.
+	// 0.995 puts the -3 dB corner near 12 Hz at 16 kHz.
+	public void setDcRemoval(double pole)
+	{
+		if (pole < 0 || pole >= 1) throw new IllegalArgumentException("DC blocker pole must be in [0, 1)");
+		dcPole = pole;
+	}
+
+	// Pre-emphasis for readMono, y[n] = x[n] - coefficient * x[n-1]; 0 (the default) disables it
+	public void setPreEmphasis(double coefficient)
+	{
+		if (coefficient < 0 || coefficient >= 1) throw new IllegalArgumentException("Pre-emphasis coefficient must be in [0, 1)");
+		preEmphasis = coefficient;
+	}
+
 	public static WavFile newWavFile(File file, int numChannels, long numFrames, int validBits, long sampleRate) throws IOException, WavFileException
 	{
 		// Instantiate new Wavfile and initialise
@@ -655,6 +694,115 @@ public class WavFile
 		return numFramesToWrite;
 	}
 
+	// Mono
+	// ----
+	// Decodes, downmixes, removes DC and pre-emphasises in one pass over the data, one output
+	// sample per frame. Filter state carries over between calls, so reading a file in pieces
+	// gives the same samples as reading it at once.
+	public int readMono(double[] sampleBuffer, int numFramesToRead) throws IOException, WavFileException
+	{
+		return readMono(sampleBuffer, 0, numFramesToRead);
+	}
+
+	public int readMono(double[] sampleBuffer, int offset, int numFramesToRead) throws IOException, WavFileException
+	{
+		if (ioState != IOState.READING) throw new IOException("Cannot read from WavFile instance");
+
+		for (int f=0 ; f<numFramesToRead ; f++)
+		{
+			if (frameCounter == numFrames) return f;
+			sampleBuffer[offset + f] = readMonoSample();
+		}
+
+		return numFramesToRead;
+	}
+
+	public int readMono(float[] sampleBuffer, int numFramesToRead) throws IOException, WavFileException
+	{
+		return readMono(sampleBuffer, 0, numFramesToRead);
+	}
+
+	public int readMono(float[] sampleBuffer, int offset, int numFramesToRead) throws IOException, WavFileException
+	{
+		if (ioState != IOState.READING) throw new IOException("Cannot read from WavFile instance");
+
+		for (int f=0 ; f<numFramesToRead ; f++)
+		{
+			if (frameCounter == numFrames) return f;
+			sampleBuffer[offset + f] = (float) readMonoSample();
+		}
+
+		return numFramesToRead;
+	}
+
+	// Reads one frame and returns its filtered mono sample
+	private double readMonoSample() throws IOException, WavFileException
+	{
+		double sum = 0;
+		double weightSum = 0;
+		if (bytesRead - bufferPointer >= blockAlign)
+		{
+			// Whole frame in the local buffer, decode it in place
+			int p = bufferPointer;
+			for (int c=0 ; c<numChannels ; c++)
+			{
+				long val;
+				switch (bytesPerSample)
+				{
+					case 1: val = buffer[p] & 0xFF; break;
+					case 2: val = (buffer[p] & 0xFF) | (buffer[p+1] << 8); break;
+					case 3: val = (buffer[p] & 0xFF) | ((buffer[p+1] & 0xFF) << 8) | (buffer[p+2] << 16); break;
+					case 4: val = (buffer[p] & 0xFF) | ((buffer[p+1] & 0xFF) << 8) | ((buffer[p+2] & 0xFF) << 16) | (buffer[p+3] << 24); break;
+					default:
+						val = 0;
+						for (int b=0 ; b<bytesPerSample ; b++)
+						{
+							int v = buffer[p+b];
+							if (b < bytesPerSample-1) v &= 0xFF;
+							val += v << (b * 8);
+						}
+				}
+				p += bytesPerSample;
+				final double w = downmix == null ? 1 : downmix[c];
+				sum += w * val;
+				weightSum += w;
+			}
+			bufferPointer = p;
+		}
+		else
+		{
+			// Frame straddles a buffer refill
+			for (int c=0 ; c<numChannels ; c++)
+			{
+				final double w = downmix == null ? 1 : downmix[c];
+				sum += w * readSample();
+				weightSum += w;
+			}
+		}
+		frameCounter ++;
+
+		if (downmix == null)
+		{
+			sum /= numChannels;
+			weightSum = 1;
+		}
+		double x = floatOffset * weightSum + sum / floatScale;
+
+		if (dcPole > 0)
+		{
+			final double y = x - dcLastIn + dcPole * dcLastOut;
+			dcLastIn = x;
+			dcLastOut = y;
+			x = y;
+		}
+		if (preEmphasis > 0)
+		{
+			final double y = x - preEmphasis * preLast;
+			preLast = x;
+			x = y;
+		}
+		return x;
+	}
 
 	public void close() throws IOException
 	{
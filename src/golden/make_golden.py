@@ -0,0 +1,72 @@
+"""Writes the librosa golden outputs checked by GoldenCheck.java.
+
+Run from the repository root, after GoldenCheck has written its inputs:
+
+    java -cp <classes> GoldenCheck -inputs
+    python src/golden/make_golden.py
+
+For every example file, GoldenCheck writes the 16 kHz excerpt it checks (the first
+3 s of channel 0, resampled with PolyphaseResampler if the file is at another rate)
+as <file>.input.f64, raw little endian float64. That excerpt goes through librosa
+with the parameters of MFCC.java, and each stage is written as a single-clip FLOAT32
+FeatureFile next to this script:
+
+  <file>.power.mfff   |stft|^2, frames x 257
+  <file>.mel.mfff     mel power spectrogram, frames x 96
+  <file>.db.mfff      power_to_db(ref=1, amin=1e-10, top_db=80), frames x 96
+  <file>.mfcc.mfff    DCT-II (ortho) of db, first 20 coefficients, frames x 20
+
+Commit the .input.f64 files with the goldens; GoldenCheck runs the stages on them.
+"""
+import os
+import struct
+
+import librosa
+import numpy as np
+import scipy.fftpack
+
+N_MFCC = 20
+N_FFT = 512
+HOP = 252
+N_MELS = 96
+SR = 16000
+FMIN = 125.0
+FMAX = 7500.0
+
+MAGIC = 0x4646464D  # "MFFF"
+VERSION = 1
+FLOAT32 = 0
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+
+
+def write_feature_file(path, config, values):
+    """One clip of frame-major float32 values, FeatureFile layout."""
+    frames, width = values.shape
+    config = config.encode("utf-8")
+    header = struct.pack("<5i", MAGIC, VERSION, FLOAT32, width, len(config)) + config
+    payload = values.astype("<f4").tobytes()
+    index = struct.pack("<qi", len(header), frames)
+    footer = struct.pack("<iqi", 1, len(header) + len(payload), MAGIC)
+    with open(path, "wb") as f:
+        f.write(header + payload + index + footer)
+
+
+def main():
+    for name in ("example.wav", "example2.wav"):
+        y = np.fromfile(os.path.join(HERE, name + ".input.f64"), dtype="<f8")
+        config = "source=librosa-%s input=%s.input.f64 samples=%d" % (librosa.__version__, name, len(y))
+
+        power = np.abs(librosa.stft(y, n_fft=N_FFT, hop_length=HOP, window="hann", center=True, pad_mode="reflect")) ** 2
+        mel_basis = librosa.filters.mel(sr=SR, n_fft=N_FFT, n_mels=N_MELS, fmin=FMIN, fmax=FMAX, htk=False, norm="slaney")
+        mel = mel_basis.dot(power)
+        db = librosa.power_to_db(mel, ref=1.0, amin=1e-10, top_db=80.0)
+        mfcc = scipy.fftpack.dct(db, axis=0, type=2, norm="ortho")[:N_MFCC]
+
+        for stage, values in (("power", power), ("mel", mel), ("db", db), ("mfcc", mfcc)):
+            write_feature_file(os.path.join(HERE, "%s.%s.mfff" % (name, stage)), config, values.T)
+        print("Wrote goldens for", name)
+
+
+if __name__ == "__main__":
+    main()